@@ -0,0 +1,234 @@
+package forensics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Serves analysis requests on a loopback socket, so that scripts running many
+// small captures pay for JVM startup and JIT warm up once instead of per run.
+// A client connects and sends one line with the arguments it would have given
+// on the command line, followed by the capture up to the end of the client's
+// output. The answer is what the command line run would have printed, after
+// which the daemon closes the connection.
+//
+//	(printf '1 2\n'; cat a.pcap) | nc -N localhost 7017
+//
+// The daemon reads and writes no file on behalf of a client, the options that
+// name one are refused like those a request cannot honour.
+//
+// Requests run concurrently on a fixed pool of workers, further connections
+// wait in the accept backlog. Capture buffers and defragmenters are pooled,
+// so a request allocates nothing of the size of a capture. The tasks print to
+// System.out, which is replaced by a stream that hands each worker's output to
+// its own client; standard error stays with the daemon.
+class AnalysisDaemon {
+
+	static final int DEFAULT_PORT = 7017;
+	static final int QUEUE_CAPACITY = 16;
+	static final int MAX_REQUEST_LINE = 65536;
+
+	static class Workspace {
+
+		byte[] captureData;
+		// Bytes of captureData written by the last request
+		int used;
+		Ipv4Defragmenter defragmenter;
+
+		Workspace() {
+			this.captureData = new byte[NetworkForensics.MAX_CAPTURE_SIZE];
+			this.used = 0;
+			this.defragmenter = new Ipv4Defragmenter();
+		}
+
+	}
+
+	// Sends what is written on a worker thread to that worker's client, and
+	// everything else to the original standard output
+	static class ThreadOutput extends OutputStream {
+
+		OutputStream fallback;
+		// Inherited, so that threads a task starts print to its client too
+		InheritableThreadLocal<OutputStream> target;
+
+		ThreadOutput(OutputStream fallback) {
+			this.fallback = fallback;
+			this.target = new InheritableThreadLocal<OutputStream>();
+		}
+
+		OutputStream current() {
+			OutputStream out = target.get();
+			return out == null ? fallback : out;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			current().write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			current().write(b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			current().flush();
+		}
+
+	}
+
+	int port;
+	int threads;
+	ArrayBlockingQueue<Workspace> workspaces;
+	ThreadOutput output;
+	ThreadPoolExecutor executor;
+
+	AnalysisDaemon(int port, int threads) {
+
+		this.port = port;
+		this.threads = threads;
+		// Filled lazily, a daemon that only sees one request at a time keeps
+		// a single capture buffer
+		this.workspaces = new ArrayBlockingQueue<Workspace>(threads);
+		this.output = new ThreadOutput(System.out);
+
+		final AtomicInteger threadCount = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY), runnable -> {
+					Thread thread = new Thread(runnable, "analysis-worker-" + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}, (runnable, executor) -> {
+					// Backpressure: stop accepting until a worker is free
+					try {
+						executor.getQueue().put(runnable);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				});
+	}
+
+	void serve() throws IOException {
+
+		System.setOut(new PrintStream(output, false));
+
+		try (ServerSocket serverSocket = new ServerSocket(port, 64, InetAddress.getLoopbackAddress())) {
+			System.err.println("Listening on " + serverSocket.getLocalSocketAddress() + " with " + threads
+					+ " workers");
+			while (true) {
+				final Socket socket = serverSocket.accept();
+				executor.execute(() -> handle(socket));
+			}
+		}
+	}
+
+	void handle(Socket socket) {
+
+		Workspace workspace = null;
+
+		try (Socket client = socket) {
+
+			InputStream in = new BufferedInputStream(client.getInputStream());
+			OutputStream out = new BufferedOutputStream(client.getOutputStream(), 65536);
+			output.target.set(out);
+
+			try {
+				Options options = Options.parse(readRequestLine(in).trim().split("\\s+"));
+				String rejected = rejectedOption(options);
+				if (rejected != null)
+					throw new IllegalArgumentException(rejected + " is not a request option");
+
+				workspace = workspaces.poll();
+				if (workspace == null)
+					workspace = new Workspace();
+
+				int captureSize = NetworkForensics.input(in, workspace.captureData);
+
+				// The tasks expect the bytes past the capture to be zero, as
+				// in a fresh buffer
+				if (captureSize < workspace.used)
+					Arrays.fill(workspace.captureData, captureSize, workspace.used, (byte) 0);
+				workspace.used = captureSize;
+
+				captureSize = workspace.defragmenter.defragment(workspace.captureData, captureSize);
+				NetworkForensics.runTasks(new PacketView(workspace.captureData, captureSize), options);
+			} catch (IllegalArgumentException e) {
+				System.out.println("Error: " + e.getMessage());
+			} catch (IOException e) {
+				System.out.println("Error reading " + e.getMessage());
+			} catch (RuntimeException e) {
+				System.out.println("Error: " + e);
+			}
+
+			System.out.flush();
+			out.flush();
+		} catch (IOException e) {
+			System.err.println("Error answering request: " + e.getMessage());
+		} finally {
+			output.target.remove();
+			if (workspace != null)
+				workspaces.offer(workspace);
+		}
+	}
+
+	// The first option of the request the daemon does not run, null when
+	// there is none
+	static String rejectedOption(Options options) {
+
+		if (options.daemonPort != 0)
+			return "--daemon";
+		// The cache swaps System.out, which the clients share
+		if (options.cacheDirectory != null)
+			return "--cache-dir";
+
+		// Files of the daemon's host
+		if (options.inputFile != null)
+			return "--input";
+		if (options.exportFile != null)
+			return "--export";
+		if (options.outputDirectory != null)
+			return "--output-dir";
+		if (options.streamDirectory != null)
+			return "--stream-dir";
+		if (options.checkpointFile != null)
+			return "--checkpoint";
+		if (options.catalogDirectory != null)
+			return "--catalog";
+
+		// Handled by main only, a request would silently go without them
+		if (options.index)
+			return "--index";
+		if (options.searchKey != null)
+			return "--search";
+		if (options.stream)
+			return "--stream";
+		return null;
+	}
+
+	// The first line of the request, without its line end
+	static String readRequestLine(InputStream in) throws IOException {
+
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		for (int b = in.read(); b != '\n'; b = in.read()) {
+			if (b == -1 || line.size() == MAX_REQUEST_LINE)
+				throw new IllegalArgumentException("Incomplete request line");
+			if (b != '\r')
+				line.write(b);
+		}
+		return new String(line.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+}
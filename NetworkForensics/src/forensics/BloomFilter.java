@@ -0,0 +1,57 @@
+package forensics;
+
+import java.nio.charset.StandardCharsets;
+
+// Set membership with false positives only, over a power of two number of
+// bits. The bit positions of a key come from the two halves of its XXH64 by
+// double hashing, h1 + i * h2 for i below hashCount. BITS_PER_KEY bits and
+// HASH_COUNT positions per key give a false positive rate near 1%.
+class BloomFilter {
+
+	static final int BITS_PER_KEY = 10;
+	static final int HASH_COUNT = 7;
+
+	long[] words;
+	int hashCount;
+
+	BloomFilter(long[] words, int hashCount) {
+		this.words = words;
+		this.hashCount = hashCount;
+	}
+
+	// Sized for the given number of keys
+	static BloomFilter forKeys(int keyCount) {
+
+		long bits = Math.max(64L, (long) keyCount * BITS_PER_KEY);
+		bits = Long.highestOneBit(bits - 1) << 1;
+		return new BloomFilter(new long[(int) (bits >>> 6)], HASH_COUNT);
+	}
+
+	void add(String key) {
+
+		long hash = hash(key);
+		long mask = (long) words.length * 64 - 1;
+		for (int i = 0; i < hashCount; ++i) {
+			long bit = (hash + i * (hash >>> 32 | 1L)) & mask;
+			words[(int) (bit >>> 6)] |= 1L << bit;
+		}
+	}
+
+	boolean mightContain(String key) {
+
+		long hash = hash(key);
+		long mask = (long) words.length * 64 - 1;
+		for (int i = 0; i < hashCount; ++i) {
+			long bit = (hash + i * (hash >>> 32 | 1L)) & mask;
+			if ((words[(int) (bit >>> 6)] & (1L << bit)) == 0)
+				return false;
+		}
+		return true;
+	}
+
+	private static long hash(String key) {
+		byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+		return XxHash64.hash(bytes, 0, bytes.length, 0L);
+	}
+
+}
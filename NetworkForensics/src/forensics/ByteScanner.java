@@ -0,0 +1,63 @@
+package forensics;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// Delimiter search over a byte array, eight bytes at a time. A long is read
+// and every byte equal to the target is flagged with the zero byte test of
+// Hacker's Delight 6-1: for x = word ^ pattern,
+// (x - 0x01..01) & ~x & 0x80..80 sets the top bit of the first zero byte of
+// x. Bytes after the first match may be flagged falsely, so only the lowest
+// flag is used, which on a little endian read is the first byte in memory.
+// The tail of fewer than eight bytes is scanned one byte at a time.
+class ByteScanner {
+
+	static final long ONES = 0x0101010101010101L;
+	static final long HIGHS = 0x8080808080808080L;
+
+	byte[] data;
+	ByteBuffer words;
+
+	ByteScanner(byte[] data) {
+		this.data = data;
+		this.words = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	// Index of the first byte with the value in [from, to), -1 if none
+	int indexOf(int from, int to, int value) {
+
+		long pattern = ONES * (value & 0xff);
+		int i = from;
+
+		for (; i + 8 <= to; i += 8) {
+			long x = words.getLong(i) ^ pattern;
+			long found = (x - ONES) & ~x & HIGHS;
+			if (found != 0)
+				return i + (Long.numberOfTrailingZeros(found) >>> 3);
+		}
+
+		for (; i < to; ++i)
+			if (data[i] == (byte) value)
+				return i;
+		return -1;
+	}
+
+	// Index of the CR of the first CRLF in [from, to), -1 if none
+	int indexOfLineEnd(int from, int to) {
+
+		for (int lf = indexOf(from + 1, to, '\n'); lf != -1; lf = indexOf(lf + 1, to, '\n'))
+			if (data[lf - 1] == '\r')
+				return lf - 1;
+		return -1;
+	}
+
+	// Index of the first CRLFCRLF in [from, to), -1 if none
+	int indexOfHeaderEnd(int from, int to) {
+
+		for (int cr = indexOfLineEnd(from, to); cr != -1; cr = indexOfLineEnd(cr + 2, to))
+			if (cr + 3 < to && data[cr + 2] == '\r' && data[cr + 3] == '\n')
+				return cr;
+		return -1;
+	}
+
+}
@@ -0,0 +1,228 @@
+package forensics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import forensics.NetworkForensics.HttpConnection;
+
+// Directory of Bloom filters over the lowercase URLs and hosts of the task3
+// transactions of each indexed capture, so that a search across an archive
+// only runs the full extraction on the captures that may match. An entry is
+// one file per capture, named by an XXH64 of the capture's path, and holds the
+// path, the size and modification time the capture had when indexed, and the
+// filter. Indexing a capture again replaces its entry.
+//
+// A search tests the filters on a pool of threads, then extracts the
+// transactions of the candidate captures one after the other with a single
+// capture buffer. A capture that has changed since it was indexed is always
+// extracted, its filter may be out of date.
+class CaptureCatalog {
+
+	static final int MAGIC = 0x4e46424c; // NFBL
+	static final int VERSION = 1;
+	static final String SUFFIX = ".bloom";
+
+	static class Entry {
+
+		String path;
+		long size;
+		long lastModified;
+		BloomFilter filter;
+
+		Entry(String path, long size, long lastModified, BloomFilter filter) {
+			this.path = path;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.filter = filter;
+		}
+
+		// The capture is no longer the one the filter was built from
+		boolean stale() {
+			File file = new File(path);
+			return file.length() != size || file.lastModified() != lastModified;
+		}
+
+	}
+
+	File directory;
+
+	CaptureCatalog(String directory) {
+		this.directory = new File(directory);
+		this.directory.mkdirs();
+	}
+
+	// Adds the capture file, whose transactions the view walks, to the catalog
+	void index(String captureFile, PacketView view, Options options) throws IOException {
+
+		Set<String> keys = new HashSet<String>();
+		for (HttpConnection httpConnection : NetworkForensics.httpTransactions(view, options)) {
+			keys.add(httpConnection.requestedUrl.toLowerCase());
+			keys.add(httpConnection.hostname.toLowerCase());
+		}
+
+		BloomFilter filter = BloomFilter.forKeys(keys.size());
+		for (String key : keys)
+			filter.add(key);
+
+		File capture = new File(captureFile).getAbsoluteFile();
+		File file = entryFile(capture.getPath());
+		File partial = new File(directory, file.getName() + ".partial");
+
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(partial)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(capture.getPath());
+			out.writeLong(capture.length());
+			out.writeLong(capture.lastModified());
+			out.writeInt(filter.hashCount);
+			out.writeInt(filter.words.length);
+			for (long word : filter.words)
+				out.writeLong(word);
+		}
+
+		if (!partial.renameTo(file))
+			throw new IOException("Cannot replace " + file);
+	}
+
+	File entryFile(String capturePath) {
+		byte[] path = capturePath.getBytes(StandardCharsets.UTF_8);
+		return new File(directory, String.format("%016x", XxHash64.hash(path, 0, path.length, 0L)) + SUFFIX);
+	}
+
+	static Entry read(File file) throws IOException {
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IOException("Not a catalog entry: " + file);
+
+			String path = in.readUTF();
+			long size = in.readLong();
+			long lastModified = in.readLong();
+			int hashCount = in.readInt();
+			long[] words = new long[in.readInt()];
+			for (int k = 0; k < words.length; ++k)
+				words[k] = in.readLong();
+
+			return new Entry(path, size, lastModified, new BloomFilter(words, hashCount));
+		}
+	}
+
+	// Paths of the captures whose filter may hold the key, or that changed
+	// since they were indexed, in path order
+	List<String> candidates(String key, int threads) {
+
+		File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+		if (files == null)
+			return new ArrayList<String>();
+
+		final AtomicInteger threadCount = new AtomicInteger();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(), runnable -> {
+					Thread thread = new Thread(runnable, "catalog-" + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+
+		List<Future<String>> tests = new ArrayList<Future<String>>();
+		for (File file : files) {
+			tests.add(executor.submit(() -> {
+				try {
+					Entry entry = read(file);
+					if (entry.filter.mightContain(key) || entry.stale())
+						return entry.path;
+				} catch (IOException e) {
+					System.err.println("Error reading " + file + ": " + e.getMessage());
+				}
+				return null;
+			}));
+		}
+		executor.shutdown();
+
+		List<String> paths = new ArrayList<String>();
+		try {
+			for (Future<String> test : tests) {
+				String path = test.get();
+				if (path != null)
+					paths.add(path);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+
+		paths.sort(null);
+		return paths;
+	}
+
+	// Prints "<capture> <url> <host> <response code> <body length>" for every
+	// transaction of the archive whose lowercase URL or host is the key
+	void search(String key, Options options) {
+
+		key = key.toLowerCase();
+		int threads = Math.max(options.threads, Runtime.getRuntime().availableProcessors());
+		List<String> paths = candidates(key, threads);
+
+		byte[] captureData = new byte[NetworkForensics.MAX_CAPTURE_SIZE];
+		int used = 0;
+		int matches = 0;
+
+		for (String path : paths) {
+
+			int captureSize;
+			try (InputStream in = new FileInputStream(path)) {
+				captureSize = NetworkForensics.input(in, captureData);
+			} catch (IOException e) {
+				System.err.println("Error reading " + path + ": " + e.getMessage());
+				continue;
+			}
+
+			// The tasks expect the bytes past the capture to be zero
+			if (captureSize < used)
+				Arrays.fill(captureData, captureSize, used, (byte) 0);
+			used = captureSize;
+			captureSize = new Ipv4Defragmenter().defragment(captureData, captureSize);
+
+			boolean matched = false;
+			for (HttpConnection httpConnection : NetworkForensics
+					.httpTransactions(new PacketView(captureData, captureSize), options)) {
+
+				String url = httpConnection.requestedUrl.toLowerCase();
+				String host = httpConnection.hostname.toLowerCase();
+				if (!url.equals(key) && !host.equals(key))
+					continue;
+
+				System.out.print(path + " " + url + " " + host + " " + httpConnection.responseCode + " "
+						+ httpConnection.responseBodyLength + "\n");
+				matched = true;
+			}
+			if (matched)
+				matches++;
+		}
+
+		System.err.println("Searched " + directory + ": " + paths.size() + " candidate captures, " + matches
+				+ " matching");
+	}
+
+}
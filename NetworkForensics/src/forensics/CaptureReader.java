@@ -0,0 +1,78 @@
+package forensics;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+// Reads the capture on a thread of its own and hands every record to the
+// decoding thread through a RecordRing as soon as its bytes are in, so that
+// reading the input overlaps with the first task instead of coming before
+// it. Fragments are reassembled on the way, the same in place rewrite as
+// Ipv4Defragmenter does over a complete capture.
+//
+// Only the bytes of the published records are stable; the rest of the buffer
+// is still being written until the ring is closed.
+class CaptureReader {
+
+	static final int RING_CAPACITY = 4096;
+	// Read size, small enough for the first records to arrive early
+	static final int READ_SIZE = 65536;
+
+	InputStream in;
+	byte[] captureData;
+	Ipv4Defragmenter defragmenter;
+	RecordRing ring;
+	Thread thread;
+	// Size of the rewritten capture, valid once the ring is closed
+	volatile int captureSize;
+
+	CaptureReader(InputStream in, byte[] captureData, Ipv4Defragmenter defragmenter) {
+		this.in = in;
+		this.captureData = captureData;
+		this.defragmenter = defragmenter;
+		this.ring = new RecordRing(RING_CAPACITY);
+		this.thread = new Thread(this::read, "capture-reader");
+		this.thread.setDaemon(true);
+		this.captureSize = 0;
+	}
+
+	void start() {
+		thread.start();
+	}
+
+	private void read() {
+
+		int size = 0;
+		boolean end = false;
+		defragmenter.start();
+
+		while (!end) {
+
+			try {
+				int n = in.read(captureData, size, Math.min(READ_SIZE, captureData.length - size));
+				if (n == -1 || size + n == captureData.length)
+					end = true;
+				if (n > 0)
+					size += n;
+			} catch (IOException e) {
+				System.out.println("Input error in parsing PCAP file");
+				end = true;
+			}
+
+			// Whole records only, until there is nothing more to come
+			while (defragmenter.readOffset < size) {
+				int recordEnd = defragmenter.readOffset
+						+ Ipv4Defragmenter.readLittleEndianInt(captureData, defragmenter.readOffset - 8);
+				if (!end && (recordEnd > size || recordEnd < 0))
+					break;
+
+				int frameStart = defragmenter.rewrite(captureData, size);
+				if (frameStart >= 0)
+					ring.put(RecordRing.slot(frameStart, defragmenter.rewrittenSize(size)));
+			}
+		}
+
+		captureSize = defragmenter.finish(size);
+		ring.close();
+	}
+
+}
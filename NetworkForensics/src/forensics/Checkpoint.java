@@ -0,0 +1,297 @@
+package forensics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import forensics.NetworkForensics.ConnectionTuple;
+import forensics.NetworkForensics.IpAddress;
+import forensics.NetworkForensics.Packet;
+import forensics.NetworkForensics.TcpConnection;
+
+// Append-only journal of the packets taken into the HTTP flow table. Every
+// checkpoint appends the packets added since the previous one, then the
+// capture offset reached, so a snapshot only costs the new entries. The
+// segments are encoded and written by a background thread, the scan only
+// hands over its batch. Reassembly and response parsing run on the finished
+// table, so the table and the offset are all the state there is to keep.
+//
+// On resume the journal is replayed up to the last complete checkpoint, in
+// the original order, and anything written after it is cut off.
+class Checkpoint {
+
+	static final int MAGIC = 0x4e46434b; // NFCK
+	static final int VERSION = 1;
+
+	static final int PACKET_RECORD = 1;
+	static final int OFFSET_RECORD = 2;
+
+	static final int QUEUE_CAPACITY = 4;
+
+	// The journal names its capture by a checksum of the first bytes
+	static final int FINGERPRINT_LENGTH = 1 << 16;
+
+	static class PendingPacket {
+
+		ConnectionTuple connection;
+		boolean upstream;
+		Packet packet;
+		// With --resolve, the server name at the time of the packet; not
+		// journaled, a resume resolves the restored connections again
+		String serverName;
+
+		PendingPacket(ConnectionTuple connection, boolean upstream, Packet packet) {
+			this.connection = connection;
+			this.upstream = upstream;
+			this.packet = packet;
+			this.serverName = null;
+		}
+
+	}
+
+	File file;
+	int interval;
+	int packetCount;
+	List<PendingPacket> pending;
+	DataOutputStream out;
+	ThreadPoolExecutor executor;
+	volatile IOException failure;
+
+	Checkpoint(String path, int interval) {
+
+		this.file = new File(path);
+		this.interval = interval;
+		this.packetCount = 0;
+		this.pending = new ArrayList<PendingPacket>();
+		this.out = null;
+		this.failure = null;
+
+		this.executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY), runnable -> {
+					Thread thread = new Thread(runnable, "checkpoint-writer");
+					thread.setDaemon(true);
+					return thread;
+				}, (runnable, executor) -> {
+					// Backpressure: block the scan until the writer catches up
+					try {
+						executor.getQueue().put(runnable);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				});
+	}
+
+	// Rebuilds the flow table from the journal and returns the capture offset
+	// to continue from, 0 when there is nothing to resume
+	int restore(byte[] captureData, int captureSize, Map<ConnectionTuple, TcpConnection> table) throws IOException {
+
+		if (!file.exists())
+			return 0;
+
+		int offset = 0;
+		long validLength = 0L;
+		List<PendingPacket> segment = new ArrayList<PendingPacket>();
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+
+			if (file.length() < 16)
+				return 0;
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IOException("Not a checkpoint file: " + file);
+			if (in.readLong() != fingerprint(captureData, captureSize))
+				throw new IOException("Checkpoint " + file + " was taken from a different capture");
+			long position = 16;
+			validLength = position;
+
+			try {
+				while (true) {
+					int record = in.readUnsignedByte();
+					position++;
+
+					if (record == PACKET_RECORD) {
+						ConnectionTuple connection = new ConnectionTuple();
+						connection.sourceIp = readIpAddress(in);
+						connection.destinationIp = readIpAddress(in);
+						connection.sourcePort = in.readUnsignedShort();
+						connection.destinationPort = in.readUnsignedShort();
+						boolean upstream = in.readBoolean();
+
+						Packet packet = new Packet();
+						packet.sequenceNumber = in.readLong();
+						packet.acknowledgementNumber = in.readLong();
+						packet.captureTime = in.readLong();
+						packet.microOffset = in.readLong();
+						packet.payloadStart = in.readInt();
+						packet.payloadLength = in.readInt();
+						position += 14 + 40;
+
+						segment.add(new PendingPacket(connection, upstream, packet));
+
+					} else if (record == OFFSET_RECORD) {
+						int segmentOffset = in.readInt();
+						position += 4;
+						if (segmentOffset > captureSize + NetworkForensics.PACKET_HEADER_LENGTH)
+							throw new IOException("Checkpoint " + file + " is past the end of the capture");
+
+						// The segment is complete, take it into the table
+						for (PendingPacket entry : segment)
+							replay(table, entry);
+						segment.clear();
+						offset = segmentOffset;
+						validLength = position;
+
+					} else {
+						break;
+					}
+				}
+			} catch (EOFException e) {
+				// A segment cut short by the crash, dropped below
+			}
+		}
+
+		// Later segments are appended after the last complete one
+		try (RandomAccessFile journal = new RandomAccessFile(file, "rw")) {
+			journal.setLength(validLength);
+		}
+
+		return offset;
+	}
+
+	static long fingerprint(byte[] captureData, int captureSize) {
+
+		CRC32 crc = new CRC32();
+		crc.update(captureData, 0, Math.min(captureSize, FINGERPRINT_LENGTH));
+		return crc.getValue();
+	}
+
+	private static IpAddress readIpAddress(DataInputStream in) throws IOException {
+
+		IpAddress ipAddress = new IpAddress();
+		ipAddress.firstByte = in.readByte();
+		ipAddress.secondByte = in.readByte();
+		ipAddress.thirdByte = in.readByte();
+		ipAddress.fourthByte = in.readByte();
+		return ipAddress;
+	}
+
+	// Same bookkeeping as the scan does for a live packet
+	private static void replay(Map<ConnectionTuple, TcpConnection> table, PendingPacket entry) {
+
+		TcpConnection tcpConnection = table.get(entry.connection);
+		if (tcpConnection == null) {
+			tcpConnection = new TcpConnection();
+			tcpConnection.source = entry.connection.sourceIp;
+			tcpConnection.destination = entry.connection.destinationIp;
+			tcpConnection.sport = entry.connection.sourcePort;
+			tcpConnection.dport = entry.connection.destinationPort;
+			tcpConnection.startTime = entry.packet.captureTime * 1000000L + entry.packet.microOffset;
+		}
+
+		Packet packet = entry.packet;
+		if (entry.upstream) {
+			tcpConnection.upstreamPackets.add(packet);
+			tcpConnection.upDataLength += packet.payloadLength;
+		} else {
+			tcpConnection.downstreamPackets.add(packet);
+			tcpConnection.downDataLength += packet.payloadLength;
+		}
+
+		table.put(entry.connection, tcpConnection);
+	}
+
+	// Starts appending, with a fresh journal unless one was just restored
+	void open(byte[] captureData, int captureSize, boolean append) throws IOException {
+
+		append = append && file.length() > 0;
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, append), 1 << 16));
+
+		if (!append) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(fingerprint(captureData, captureSize));
+			out.flush();
+		}
+	}
+
+	// A packet was added to the flow table under the client to server tuple
+	void add(PendingPacket entry) {
+		pending.add(entry);
+	}
+
+	// Called after every capture record, with the offset of the next one
+	void advance(int offset) {
+
+		if (++packetCount % interval == 0)
+			submit(offset);
+	}
+
+	private void submit(final int offset) {
+
+		final List<PendingPacket> segment = pending;
+		pending = new ArrayList<PendingPacket>();
+
+		executor.execute(() -> {
+			try {
+				for (PendingPacket entry : segment) {
+					out.writeByte(PACKET_RECORD);
+					writeIpAddress(entry.connection.sourceIp);
+					writeIpAddress(entry.connection.destinationIp);
+					out.writeShort(entry.connection.sourcePort);
+					out.writeShort(entry.connection.destinationPort);
+					out.writeBoolean(entry.upstream);
+					out.writeLong(entry.packet.sequenceNumber);
+					out.writeLong(entry.packet.acknowledgementNumber);
+					out.writeLong(entry.packet.captureTime);
+					out.writeLong(entry.packet.microOffset);
+					out.writeInt(entry.packet.payloadStart);
+					out.writeInt(entry.packet.payloadLength);
+				}
+				out.writeByte(OFFSET_RECORD);
+				out.writeInt(offset);
+				// Handed to the OS, enough to survive the JVM going down
+				out.flush();
+			} catch (IOException e) {
+				if (failure == null)
+					failure = e;
+			}
+		});
+	}
+
+	private void writeIpAddress(IpAddress ipAddress) throws IOException {
+		out.writeByte(ipAddress.firstByte);
+		out.writeByte(ipAddress.secondByte);
+		out.writeByte(ipAddress.thirdByte);
+		out.writeByte(ipAddress.fourthByte);
+	}
+
+	// Writes the final checkpoint and reports the first write error, if any
+	void close(int offset) throws IOException {
+
+		submit(offset);
+		executor.shutdown();
+		try {
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		out.close();
+
+		if (failure != null)
+			throw failure;
+	}
+
+}
@@ -0,0 +1,44 @@
+package forensics;
+
+import java.nio.charset.StandardCharsets;
+
+// Count-min sketch (Cormode and Muthukrishnan 2005) of weighted string keys.
+// Estimates never undercount, and overcount by at most e/width of the total
+// weight with probability 1 - e^-depth. Every row hashes the UTF-8 bytes of
+// the key with XXH64 under its own seed, so keys that collide in one row are
+// not bound to collide in the others. The sketch takes depth * width counters
+// whatever the number of keys.
+class CountMinSketch {
+
+	int depth;
+	int width;
+	long[] counters;
+
+	CountMinSketch(int depth, int width) {
+		this.depth = depth;
+		this.width = width;
+		this.counters = new long[depth * width];
+	}
+
+	// Column of the key in the given row, the row number is the seed
+	private int column(int row, byte[] key) {
+		return (int) ((XxHash64.hash(key, 0, key.length, row) >>> 1) % width);
+	}
+
+	void add(String key, long weight) {
+
+		byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+		for (int row = 0; row < depth; ++row)
+			counters[row * width + column(row, bytes)] += weight;
+	}
+
+	long estimate(String key) {
+
+		byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+		long estimate = Long.MAX_VALUE;
+		for (int row = 0; row < depth; ++row)
+			estimate = Math.min(estimate, counters[row * width + column(row, bytes)]);
+		return estimate;
+	}
+
+}
@@ -0,0 +1,106 @@
+package forensics;
+
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+// Open addressing hash set of 128 bit content digests. The table lives in a
+// direct buffer so that tens of thousands of entries do not add to the heap.
+// Every entry also counts how many times the digest was added.
+class DigestSet {
+
+	// high (8) + low (8) + count (4) + body size (4)
+	static final int ENTRY_SIZE = 24;
+	static final int INITIAL_CAPACITY = 1024;
+
+	ByteBuffer table;
+	int capacity;
+	int size;
+
+	DigestSet() {
+		this.capacity = INITIAL_CAPACITY;
+		this.table = ByteBuffer.allocateDirect(capacity * ENTRY_SIZE);
+		this.size = 0;
+	}
+
+	// Adds one occurrence of the digest and returns its count, 1 the first
+	// time it is seen
+	int add(long high, long low, int bodySize) {
+
+		if ((size + 1) * 2 > capacity)
+			resize(capacity * 2);
+
+		int slot = find(table, capacity, high, low);
+		int base = slot * ENTRY_SIZE;
+		int count = table.getInt(base + 16);
+
+		if (count == 0) {
+			table.putLong(base, high);
+			table.putLong(base + 8, low);
+			table.putInt(base + 20, bodySize);
+			size++;
+		}
+		table.putInt(base + 16, count + 1);
+
+		return count + 1;
+	}
+
+	// Slot holding the digest, or the empty slot where it belongs
+	private static int find(ByteBuffer table, int capacity, long high, long low) {
+
+		int slot = (int) (low ^ (low >>> 32)) & (capacity - 1);
+		while (true) {
+			int base = slot * ENTRY_SIZE;
+			if (table.getInt(base + 16) == 0
+					|| (table.getLong(base) == high && table.getLong(base + 8) == low)) {
+				return slot;
+			}
+			slot = (slot + 1) & (capacity - 1);
+		}
+	}
+
+	private void resize(int newCapacity) {
+
+		ByteBuffer newTable = ByteBuffer.allocateDirect(newCapacity * ENTRY_SIZE);
+
+		for (int slot = 0; slot < capacity; ++slot) {
+			int base = slot * ENTRY_SIZE;
+			if (table.getInt(base + 16) == 0)
+				continue;
+
+			int newBase = find(newTable, newCapacity, table.getLong(base), table.getLong(base + 8)) * ENTRY_SIZE;
+			newTable.putLong(newBase, table.getLong(base));
+			newTable.putLong(newBase + 8, table.getLong(base + 8));
+			newTable.putInt(newBase + 16, table.getInt(base + 16));
+			newTable.putInt(newBase + 20, table.getInt(base + 20));
+		}
+
+		table = newTable;
+		capacity = newCapacity;
+	}
+
+	static String toHex(long high, long low) {
+		return String.format("%016x%016x", high, low);
+	}
+
+	// One "digest count size" line per digest, most repeated first
+	void print(PrintStream out) {
+
+		List<Integer> slots = new ArrayList<Integer>();
+		for (int slot = 0; slot < capacity; ++slot) {
+			if (table.getInt(slot * ENTRY_SIZE + 16) != 0)
+				slots.add(slot);
+		}
+
+		slots.sort((s1, s2) -> Integer.compare(table.getInt(s2 * ENTRY_SIZE + 16),
+				table.getInt(s1 * ENTRY_SIZE + 16)));
+
+		for (int slot : slots) {
+			int base = slot * ENTRY_SIZE;
+			out.print(toHex(table.getLong(base), table.getLong(base + 8)) + " " + table.getInt(base + 16) + " "
+					+ table.getInt(base + 20) + "\n");
+		}
+	}
+
+}
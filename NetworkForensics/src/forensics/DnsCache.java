@@ -0,0 +1,443 @@
+package forensics;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import forensics.NetworkForensics.IpAddress;
+
+// IPv4 address to DNS name bindings taken from the A records of the UDP/53
+// responses in the capture. Each binding keeps the capture time of the
+// answer, so that a flow is annotated with the name the address had when the
+// flow started, not with whatever was looked up last. The responses are added
+// in the pass that finds the flows, and a flow is looked up when it starts,
+// so the bounded history only has to cover the answers up to then.
+//
+// Memory is fixed. Addresses live in a set associative table, WAYS addresses
+// per set and the last HISTORY bindings per address; a new address takes the
+// way of the least recently answered one. Names are decoded into a scratch
+// buffer without allocating and interned in a byte pool, so a name that is
+// answered over and over is stored once. A name is counted by the bindings
+// that hold it and let go with the last one. When a new name does not fit,
+// the ways are evicted one at a time, in about the order they were last
+// answered, until it does.
+class DnsCache {
+
+	static final int SETS = 4096;
+	static final int WAYS = 4;
+	static final int HISTORY = 4;
+	static final int POOL_SIZE = 1 << 20;
+	static final int INTERN_SLOTS = 1 << 15;
+	static final int MAX_NAMES = INTERN_SLOTS / 2;
+	// A DNS name is at most 255 bytes on the wire
+	static final int MAX_NAME_LENGTH = 255;
+
+	// Per way
+	int[] addresses;
+	boolean[] used;
+	long[] lastAnswer;
+	// Set when the way is answered, cleared as the eviction hand passes it
+	boolean[] answered;
+	int hand;
+	// Per way and history entry, a ring with the newest at historyNext - 1
+	long[] bindingTime;
+	int[] bindingName;
+	int[] historyCount;
+	int[] historyNext;
+
+	// Interned names: length byte followed by the name, and a hash table of
+	// name numbers, -1 when free. A name is known by its number, which stays
+	// the same while the table and the pool are rearranged.
+	byte[] pool;
+	int poolSize;
+	// Bytes of the pool that belong to a name still held
+	int poolLive;
+	int[] internTable;
+	int internCount;
+
+	// Per name number, the offset is -1 for a free number
+	int[] nameOffset;
+	int[] nameReferences;
+	String[] nameStrings;
+	int[] freeNames;
+	int freeNameCount;
+
+	byte[] scratch;
+	int scratchLength;
+
+	DnsCache() {
+
+		this.addresses = new int[SETS * WAYS];
+		this.used = new boolean[SETS * WAYS];
+		this.lastAnswer = new long[SETS * WAYS];
+		this.answered = new boolean[SETS * WAYS];
+		this.hand = 0;
+		this.bindingTime = new long[SETS * WAYS * HISTORY];
+		this.bindingName = new int[SETS * WAYS * HISTORY];
+		this.historyCount = new int[SETS * WAYS];
+		this.historyNext = new int[SETS * WAYS];
+
+		this.pool = new byte[POOL_SIZE];
+		this.poolSize = 0;
+		this.poolLive = 0;
+		this.internTable = new int[INTERN_SLOTS];
+		Arrays.fill(internTable, -1);
+		this.internCount = 0;
+
+		this.nameOffset = new int[MAX_NAMES];
+		Arrays.fill(nameOffset, -1);
+		this.nameReferences = new int[MAX_NAMES];
+		this.nameStrings = new String[MAX_NAMES];
+		// Handed out from the end, the lowest number first
+		this.freeNames = new int[MAX_NAMES];
+		for (int k = 0; k < MAX_NAMES; ++k)
+			freeNames[k] = MAX_NAMES - 1 - k;
+		this.freeNameCount = MAX_NAMES;
+
+		this.scratch = new byte[MAX_NAME_LENGTH + 1];
+		this.scratchLength = 0;
+	}
+
+	// Takes the packet the view is on if it is a DNS response
+	void add(PacketView view) {
+
+		if (view.isUdp() && view.sourcePort() == 53) {
+			int start = view.payloadStart();
+			addResponse(view.data, start, start + view.payloadLength(), view.timestamp());
+		}
+	}
+
+	// Binds the A records of a response to the name that was asked for
+	void addResponse(byte[] data, int start, int end, long captureTime) {
+
+		if (end - start < 12)
+			return;
+
+		int flags = (Byte.toUnsignedInt(data[start + 2]) << 8) | Byte.toUnsignedInt(data[start + 3]);
+		int questionCount = (Byte.toUnsignedInt(data[start + 4]) << 8) | Byte.toUnsignedInt(data[start + 5]);
+		int answerCount = (Byte.toUnsignedInt(data[start + 6]) << 8) | Byte.toUnsignedInt(data[start + 7]);
+		// A response without error that answers one question
+		if ((flags & 0x8000) == 0 || (flags & 0x000f) != 0 || questionCount != 1)
+			return;
+
+		int position = start + 12;
+		if (!decodeName(data, start, position, end))
+			return;
+		// Interned with the first A record, a name no binding holds is never
+		// stored
+		int name = -1;
+
+		// Past the question name, type and class
+		position = skipName(data, position, end);
+		if (position < 0)
+			return;
+		position += 4;
+
+		for (int answer = 0; answer < answerCount; ++answer) {
+
+			position = skipName(data, position, end);
+			if (position < 0 || position + 10 > end)
+				return;
+
+			int type = (Byte.toUnsignedInt(data[position]) << 8) | Byte.toUnsignedInt(data[position + 1]);
+			int recordClass = (Byte.toUnsignedInt(data[position + 2]) << 8) | Byte.toUnsignedInt(data[position + 3]);
+			int dataLength = (Byte.toUnsignedInt(data[position + 8]) << 8) | Byte.toUnsignedInt(data[position + 9]);
+			position += 10;
+			if (position + dataLength > end)
+				return;
+
+			if (type == 1 && recordClass == 1 && dataLength == 4) {
+				if (name < 0)
+					name = intern();
+				bind(Ipv4Defragmenter.readBigEndianInt(data, position), name, captureTime);
+			}
+
+			position += dataLength;
+		}
+	}
+
+	// Decodes the name at position into scratch, lower case and dot separated,
+	// following compression pointers relative to the message start
+	boolean decodeName(byte[] data, int message, int position, int end) {
+
+		scratchLength = 0;
+		// Every pointer has to go backwards, which also bounds the jumps
+		int limit = position;
+
+		while (position < end) {
+
+			int length = Byte.toUnsignedInt(data[position]);
+
+			if ((length & 0xc0) == 0xc0) {
+				if (position + 1 >= end)
+					return false;
+				int target = message + (((length & 0x3f) << 8) | Byte.toUnsignedInt(data[position + 1]));
+				if (target >= limit)
+					return false;
+				limit = target;
+				position = target;
+				continue;
+			}
+			if (length == 0)
+				return scratchLength > 0;
+			if ((length & 0xc0) != 0 || position + 1 + length > end
+					|| scratchLength + length + 1 > MAX_NAME_LENGTH)
+				return false;
+
+			if (scratchLength > 0)
+				scratch[scratchLength++] = '.';
+			for (int k = 1; k <= length; ++k) {
+				byte b = data[position + k];
+				scratch[scratchLength++] = (b >= 'A' && b <= 'Z') ? (byte) (b + 32) : b;
+			}
+			position += 1 + length;
+		}
+		return false;
+	}
+
+	// Position after the name at position, -1 if it runs off the end
+	static int skipName(byte[] data, int position, int end) {
+
+		while (position < end) {
+			int length = Byte.toUnsignedInt(data[position]);
+			if ((length & 0xc0) == 0xc0)
+				return position + 2;
+			if (length == 0)
+				return position + 1;
+			position += 1 + length;
+		}
+		return -1;
+	}
+
+	// Number of the name in scratch, added if new
+	int intern() {
+
+		int home = home(scratch, 0, scratchLength);
+		for (int slot = home; internTable[slot] != -1; slot = (slot + 1) & (INTERN_SLOTS - 1)) {
+			int name = internTable[slot];
+			if (Byte.toUnsignedInt(pool[nameOffset[name]]) == scratchLength && equalsScratch(nameOffset[name] + 1))
+				return name;
+		}
+
+		// Every name is held by a binding, so there is a way to evict as long
+		// as names or pool bytes are in use
+		int length = 1 + scratchLength;
+		while (internCount == MAX_NAMES || poolLive + length > POOL_SIZE)
+			evictWay();
+		if (poolSize + length > POOL_SIZE) {
+			// With a quarter of the pool free, the names that follow do not
+			// compact it again at once
+			while (poolLive + length > POOL_SIZE - POOL_SIZE / 4)
+				evictWay();
+			compact();
+		}
+
+		int name = freeNames[--freeNameCount];
+		int offset = poolSize;
+		pool[offset] = (byte) scratchLength;
+		System.arraycopy(scratch, 0, pool, offset + 1, scratchLength);
+		poolSize += length;
+		poolLive += length;
+		nameOffset[name] = offset;
+		nameReferences[name] = 0;
+
+		// Evictions may have moved the entries of the probe sequence
+		int slot = home;
+		while (internTable[slot] != -1)
+			slot = (slot + 1) & (INTERN_SLOTS - 1);
+		internTable[slot] = name;
+		internCount++;
+		return name;
+	}
+
+	private static int home(byte[] data, int offset, int length) {
+
+		int hash = 0;
+		for (int k = offset; k < offset + length; ++k)
+			hash = 31 * hash + data[k];
+		return (int) (HyperLogLog.mix(hash) & (INTERN_SLOTS - 1));
+	}
+
+	private boolean equalsScratch(int offset) {
+
+		for (int k = 0; k < scratchLength; ++k)
+			if (pool[offset + k] != scratch[k])
+				return false;
+		return true;
+	}
+
+	private void release(int name) {
+
+		if (--nameReferences[name] > 0)
+			return;
+
+		int offset = nameOffset[name];
+		int length = Byte.toUnsignedInt(pool[offset]);
+		int slot = home(pool, offset + 1, length);
+		while (internTable[slot] != name)
+			slot = (slot + 1) & (INTERN_SLOTS - 1);
+
+		// Deleted by moving back the entries of the run after it that may
+		// live in the hole, so that no probe stops early
+		internTable[slot] = -1;
+		for (int next = (slot + 1) & (INTERN_SLOTS - 1); internTable[next] != -1; next = (next + 1)
+				& (INTERN_SLOTS - 1)) {
+			int moved = internTable[next];
+			int movedHome = home(pool, nameOffset[moved] + 1, Byte.toUnsignedInt(pool[nameOffset[moved]]));
+			if (((next - movedHome) & (INTERN_SLOTS - 1)) >= ((next - slot) & (INTERN_SLOTS - 1))) {
+				internTable[slot] = moved;
+				internTable[next] = -1;
+				slot = next;
+			}
+		}
+
+		poolLive -= 1 + length;
+		internCount--;
+		nameOffset[name] = -1;
+		nameStrings[name] = null;
+		freeNames[freeNameCount++] = name;
+	}
+
+	// Lets go of the bindings of the way
+	private void releaseWay(int way) {
+
+		for (int k = 0; k < historyCount[way]; ++k)
+			release(bindingName[way * HISTORY + k]);
+		used[way] = false;
+		historyCount[way] = 0;
+		historyNext[way] = 0;
+	}
+
+	// Evicts one way, found by a hand that goes round the ways and spares
+	// once those answered since it last went by, which takes the ways in
+	// about the order they were last answered
+	private void evictWay() {
+
+		while (true) {
+			int way = hand;
+			hand = (hand + 1) % (SETS * WAYS);
+			if (!used[way])
+				continue;
+			if (answered[way]) {
+				answered[way] = false;
+				continue;
+			}
+			releaseWay(way);
+			return;
+		}
+	}
+
+	// Moves the names still held to the start of the pool, in pool order
+	private void compact() {
+
+		long[] live = new long[internCount];
+		int count = 0;
+		for (int name = 0; name < MAX_NAMES; ++name)
+			if (nameOffset[name] >= 0)
+				live[count++] = ((long) nameOffset[name] << 32) | name;
+		Arrays.sort(live, 0, count);
+
+		poolSize = 0;
+		for (int k = 0; k < count; ++k) {
+			int name = (int) live[k];
+			int offset = nameOffset[name];
+			int length = 1 + Byte.toUnsignedInt(pool[offset]);
+			System.arraycopy(pool, offset, pool, poolSize, length);
+			nameOffset[name] = poolSize;
+			poolSize += length;
+		}
+	}
+
+	private static int set(int address) {
+		return (int) (HyperLogLog.mix(address) & (SETS - 1));
+	}
+
+	void bind(int address, int name, long captureTime) {
+
+		int first = set(address) * WAYS;
+		int way = -1;
+		int victim = -1;
+		long victimAnswer = Long.MAX_VALUE;
+
+		for (int k = first; k < first + WAYS; ++k) {
+			if (used[k] && addresses[k] == address) {
+				way = k;
+				break;
+			}
+			// A free way, otherwise the least recently answered one
+			long answer = used[k] ? lastAnswer[k] : Long.MIN_VALUE;
+			if (victim < 0 || answer < victimAnswer) {
+				victim = k;
+				victimAnswer = answer;
+			}
+		}
+
+		// Held before the bindings it replaces are let go, they may be the
+		// only others holding it
+		nameReferences[name]++;
+
+		if (way < 0) {
+			way = victim;
+			if (used[way])
+				releaseWay(way);
+			used[way] = true;
+			addresses[way] = address;
+			lastAnswer[way] = captureTime;
+		}
+		answered[way] = true;
+
+		// The same name again only moves the binding forward in time if it
+		// is already the newest
+		int newest = way * HISTORY + (historyNext[way] + HISTORY - 1) % HISTORY;
+		if (historyCount[way] > 0 && bindingName[newest] == name) {
+			lastAnswer[way] = Math.max(lastAnswer[way], captureTime);
+			release(name);
+			return;
+		}
+
+		int entry = way * HISTORY + historyNext[way];
+		if (historyCount[way] == HISTORY)
+			release(bindingName[entry]);
+		bindingTime[entry] = captureTime;
+		bindingName[entry] = name;
+		historyNext[way] = (historyNext[way] + 1) % HISTORY;
+		historyCount[way] = Math.min(historyCount[way] + 1, HISTORY);
+		lastAnswer[way] = Math.max(lastAnswer[way], captureTime);
+	}
+
+	// Name the address had at the given capture time in microseconds, null if
+	// it was not resolved before then
+	String lookup(IpAddress address, long captureTime) {
+		return lookup((Byte.toUnsignedInt(address.firstByte) << 24) | (Byte.toUnsignedInt(address.secondByte) << 16)
+				| (Byte.toUnsignedInt(address.thirdByte) << 8) | Byte.toUnsignedInt(address.fourthByte), captureTime);
+	}
+
+	String lookup(int address, long captureTime) {
+
+		int first = set(address) * WAYS;
+		for (int way = first; way < first + WAYS; ++way) {
+			if (!used[way] || addresses[way] != address)
+				continue;
+
+			int best = -1;
+			for (int k = 0; k < historyCount[way]; ++k) {
+				int entry = way * HISTORY + k;
+				if (bindingTime[entry] <= captureTime && (best < 0 || bindingTime[entry] > bindingTime[best]))
+					best = entry;
+			}
+			return best < 0 ? null : name(bindingName[best]);
+		}
+		return null;
+	}
+
+	// Strings are only made for names that end up in the output
+	private String name(int name) {
+
+		if (nameStrings[name] == null) {
+			int offset = nameOffset[name];
+			nameStrings[name] = new String(pool, offset + 1, Byte.toUnsignedInt(pool[offset]),
+					StandardCharsets.US_ASCII);
+		}
+		return nameStrings[name];
+	}
+
+}
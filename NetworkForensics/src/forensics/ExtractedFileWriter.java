@@ -0,0 +1,90 @@
+package forensics;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import forensics.NetworkForensics.ConnectionTuple;
+import forensics.NetworkForensics.HttpConnection;
+
+// Writes extracted response bodies as individual files on a small pool of
+// writer threads. The hand-off queue is bounded, when it is full the parse
+// loop waits for a writer instead of piling up pending files.
+class ExtractedFileWriter {
+
+	static final int QUEUE_CAPACITY = 64;
+
+	File directory;
+	boolean decode;
+	ThreadPoolExecutor executor;
+	volatile IOException failure;
+
+	ExtractedFileWriter(String directory, int threads, boolean decode) {
+
+		this.directory = new File(directory);
+		this.decode = decode;
+		this.directory.mkdirs();
+		this.failure = null;
+
+		final AtomicInteger threadCount = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY), runnable -> {
+					Thread thread = new Thread(runnable, "extract-writer-" + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}, (runnable, executor) -> {
+					// Backpressure: block the submitting thread until a slot frees up
+					try {
+						executor.getQueue().put(runnable);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				});
+	}
+
+	// <client ip>_<client port>_<server ip>_<server port>_<seconds>.<micros>.<extension>
+	static String fileName(HttpConnection httpConnection) {
+
+		ConnectionTuple connection = httpConnection.connection;
+		return connection.sourceIp + "_" + connection.sourcePort + "_" + connection.destinationIp + "_"
+				+ connection.destinationPort + "_" + httpConnection.captureTime + "."
+				+ String.format("%06d", httpConnection.microOffset) + "." + httpConnection.imageType;
+	}
+
+	void submit(HttpConnection httpConnection) {
+
+		// Each file gets its own cursor over the shared reassembled stream
+		final ReassembledStream stream = httpConnection.responseStream.duplicate();
+		final File file = new File(directory, fileName(httpConnection));
+
+		executor.execute(() -> {
+			try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+				NetworkForensics.writeResponseBody(httpConnection, stream, out, decode);
+			} catch (IOException e) {
+				if (failure == null)
+					failure = e;
+			}
+		});
+	}
+
+	// Waits for the pending files and reports the first write error, if any
+	void close() throws IOException {
+
+		executor.shutdown();
+		try {
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		if (failure != null)
+			throw failure;
+	}
+
+}
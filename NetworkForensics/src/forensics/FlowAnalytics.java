@@ -0,0 +1,332 @@
+package forensics;
+
+import java.util.Arrays;
+
+// TCP behaviour of the port 80 connections, for task7: handshake and data to
+// ack round trip times, retransmitted, out of order and skipped bytes, zero
+// window advertisements and goodput. Packets are fed in capture order and
+// nothing is kept of them. A flow is a fixed record of primitive fields in
+// parallel arrays, indexed by flow and, for the fields of one direction, by
+// flow * 2 + direction.
+//
+// Sequence numbers are compared as 32 bit serial numbers, so a wrap does not
+// matter. A segment that starts past the highest sequence number sent so far
+// skips the bytes in between, which the capture has not seen yet; the last
+// MAX_HOLES such holes are remembered per direction, and bytes that fill one
+// later are new, no longer skipped. A segment that starts below the highest
+// sequence number comes out of order when it is within a round trip of the
+// highest one, and is a retransmission after that, as Wireshark tells them
+// apart. The round trip is never taken below DEFAULT_ROUND_TRIP, a fast
+// first sample would make every reordering a retransmission. One data
+// segment per direction is timed until it is acked, and a retransmission of
+// it cancels the sample (Karn's rule).
+class FlowAnalytics {
+
+	static final int UP = 0;
+	static final int DOWN = 1;
+
+	static final int FIN = 0x01;
+	static final int SYN = 0x02;
+	static final int RST = 0x04;
+	static final int ACK = 0x10;
+
+	// Round trip assumed before the first sample, and the least one used to
+	// tell reordering from retransmission, in microseconds
+	static final long DEFAULT_ROUND_TRIP = 3000L;
+	static final int MAX_HOLES = 4;
+
+	int flowCount;
+
+	// Per flow, times in microseconds, -1 until known
+	long[] firstTime;
+	long[] lastTime;
+	long[] synTime;
+	long[] handshakeRtt;
+	long[] rttCount;
+	long[] rttSum;
+	long[] rttMin;
+	long[] rttMax;
+
+	// Per flow and direction
+	boolean[] started;
+	long[] highestSeq;
+	long[] highestTime;
+	long[] uniqueBytes;
+	long[] retransmittedBytes;
+	long[] outOfOrderBytes;
+	long[] skippedBytes;
+	long[] zeroWindowCount;
+	// End of the timed segment and when it was sent, -1 when none is timed
+	long[] timedSeq;
+	long[] timedTime;
+	// Per flow, direction and hole, oldest first, the skipped bytes from start
+	// to end
+	long[] holeStart;
+	long[] holeEnd;
+	int[] holeCount;
+
+	FlowAnalytics(int capacity) {
+
+		this.flowCount = 0;
+
+		this.firstTime = new long[capacity];
+		this.lastTime = new long[capacity];
+		this.synTime = new long[capacity];
+		this.handshakeRtt = new long[capacity];
+		this.rttCount = new long[capacity];
+		this.rttSum = new long[capacity];
+		this.rttMin = new long[capacity];
+		this.rttMax = new long[capacity];
+
+		this.started = new boolean[capacity * 2];
+		this.highestSeq = new long[capacity * 2];
+		this.highestTime = new long[capacity * 2];
+		this.uniqueBytes = new long[capacity * 2];
+		this.retransmittedBytes = new long[capacity * 2];
+		this.outOfOrderBytes = new long[capacity * 2];
+		this.skippedBytes = new long[capacity * 2];
+		this.zeroWindowCount = new long[capacity * 2];
+		this.timedSeq = new long[capacity * 2];
+		this.timedTime = new long[capacity * 2];
+		this.holeStart = new long[capacity * 2 * MAX_HOLES];
+		this.holeEnd = new long[capacity * 2 * MAX_HOLES];
+		this.holeCount = new int[capacity * 2];
+	}
+
+	// A new flow, whose first packet comes at the given time
+	int addFlow(long time) {
+
+		if (flowCount == firstTime.length)
+			grow(flowCount * 2);
+
+		int flow = flowCount++;
+		firstTime[flow] = time;
+		lastTime[flow] = time;
+		synTime[flow] = -1L;
+		handshakeRtt[flow] = -1L;
+		rttMin[flow] = -1L;
+		rttMax[flow] = -1L;
+		timedTime[flow * 2 + UP] = -1L;
+		timedTime[flow * 2 + DOWN] = -1L;
+		return flow;
+	}
+
+	private void grow(int capacity) {
+
+		capacity = Math.max(capacity, 16);
+
+		firstTime = Arrays.copyOf(firstTime, capacity);
+		lastTime = Arrays.copyOf(lastTime, capacity);
+		synTime = Arrays.copyOf(synTime, capacity);
+		handshakeRtt = Arrays.copyOf(handshakeRtt, capacity);
+		rttCount = Arrays.copyOf(rttCount, capacity);
+		rttSum = Arrays.copyOf(rttSum, capacity);
+		rttMin = Arrays.copyOf(rttMin, capacity);
+		rttMax = Arrays.copyOf(rttMax, capacity);
+
+		started = Arrays.copyOf(started, capacity * 2);
+		highestSeq = Arrays.copyOf(highestSeq, capacity * 2);
+		highestTime = Arrays.copyOf(highestTime, capacity * 2);
+		uniqueBytes = Arrays.copyOf(uniqueBytes, capacity * 2);
+		retransmittedBytes = Arrays.copyOf(retransmittedBytes, capacity * 2);
+		outOfOrderBytes = Arrays.copyOf(outOfOrderBytes, capacity * 2);
+		skippedBytes = Arrays.copyOf(skippedBytes, capacity * 2);
+		zeroWindowCount = Arrays.copyOf(zeroWindowCount, capacity * 2);
+		timedSeq = Arrays.copyOf(timedSeq, capacity * 2);
+		timedTime = Arrays.copyOf(timedTime, capacity * 2);
+		holeStart = Arrays.copyOf(holeStart, capacity * 2 * MAX_HOLES);
+		holeEnd = Arrays.copyOf(holeEnd, capacity * 2 * MAX_HOLES);
+		holeCount = Arrays.copyOf(holeCount, capacity * 2);
+	}
+
+	// The TCP packet the view is on, sent in the given direction of the flow
+	void add(int flow, int direction, PacketView view) {
+
+		long time = view.timestamp();
+		int flags = view.tcpFlags();
+		int side = flow * 2 + direction;
+		int otherSide = flow * 2 + (1 - direction);
+
+		lastTime[flow] = time;
+
+		// Handshake round trip from the client's first SYN to the SYN/ACK
+		if ((flags & (SYN | ACK)) == SYN && direction == UP && synTime[flow] < 0)
+			synTime[flow] = time;
+		if ((flags & (SYN | ACK)) == (SYN | ACK) && direction == DOWN && synTime[flow] >= 0
+				&& handshakeRtt[flow] < 0)
+			handshakeRtt[flow] = time - synTime[flow];
+
+		// A reset carries no meaningful window
+		if ((flags & RST) == 0 && view.window() == 0)
+			zeroWindowCount[side]++;
+
+		if ((flags & ACK) != 0 && timedTime[otherSide] >= 0
+				&& (int) (view.acknowledgementNumber() - timedSeq[otherSide]) >= 0) {
+			sample(flow, time - timedTime[otherSide]);
+			timedTime[otherSide] = -1L;
+		}
+
+		// SYN and FIN take a sequence number each
+		int payloadLength = Math.max(view.payloadLength(), 0);
+		int length = payloadLength + ((flags & SYN) != 0 ? 1 : 0) + ((flags & FIN) != 0 ? 1 : 0);
+		if (length == 0)
+			return;
+
+		long seq = view.sequenceNumber();
+		long end = (seq + length) & 0xffffffffL;
+
+		if (!started[side]) {
+			started[side] = true;
+			advance(side, end, time, payloadLength);
+			return;
+		}
+
+		int ahead = (int) (seq - highestSeq[side]);
+		if (ahead >= 0) {
+			if (ahead > 0) {
+				skippedBytes[side] += ahead;
+				addHole(side, highestSeq[side], seq);
+			}
+			advance(side, end, time, payloadLength);
+			return;
+		}
+
+		// Bytes below the highest sequence number were sent before, unless
+		// they fill a hole
+		int resent = Math.min(-ahead, payloadLength);
+		int filled = fillHoles(side, seq, (seq + resent) & 0xffffffffL);
+		uniqueBytes[side] += filled;
+		skippedBytes[side] -= filled;
+
+		if (time - highestTime[side] < Math.max(roundTrip(flow), DEFAULT_ROUND_TRIP)) {
+			outOfOrderBytes[side] += resent;
+		} else {
+			retransmittedBytes[side] += resent;
+		}
+		if (timedTime[side] >= 0 && (int) (seq - timedSeq[side]) < 0)
+			timedTime[side] = -1L;
+
+		if ((int) (end - highestSeq[side]) > 0)
+			advance(side, end, time, payloadLength - resent);
+	}
+
+	// New bytes up to end, and the segment is timed if none is
+	private void advance(int side, long end, long time, int newBytes) {
+
+		uniqueBytes[side] += newBytes;
+		highestSeq[side] = end;
+		highestTime[side] = time;
+		if (newBytes > 0 && timedTime[side] < 0) {
+			timedSeq[side] = end;
+			timedTime[side] = time;
+		}
+	}
+
+	// Remembers the skipped bytes from start to end, in place of the oldest
+	// hole when there are MAX_HOLES already
+	private void addHole(int side, long start, long end) {
+
+		int first = side * MAX_HOLES;
+		if (holeCount[side] == MAX_HOLES) {
+			System.arraycopy(holeStart, first + 1, holeStart, first, MAX_HOLES - 1);
+			System.arraycopy(holeEnd, first + 1, holeEnd, first, MAX_HOLES - 1);
+			holeCount[side]--;
+		}
+		holeStart[first + holeCount[side]] = start;
+		holeEnd[first + holeCount[side]] = end;
+		holeCount[side]++;
+	}
+
+	// Takes the bytes from start to end out of the holes of the side and
+	// returns how many were in one
+	private int fillHoles(int side, long start, long end) {
+
+		int first = side * MAX_HOLES;
+		int length = (int) (end - start);
+		int filled = 0;
+
+		for (int k = first; k < first + holeCount[side];) {
+
+			// The hole relative to start
+			int from = (int) (holeStart[k] - start);
+			int to = (int) (holeEnd[k] - start);
+			if (to <= 0 || from >= length) {
+				++k;
+				continue;
+			}
+			filled += Math.min(to, length) - Math.max(from, 0);
+
+			if (from < 0 && to > length) {
+				// Split in two, the upper part is dropped if there is no room
+				// and its bytes stay skipped
+				long upperStart = end;
+				long upperEnd = holeEnd[k];
+				holeEnd[k] = start;
+				if (holeCount[side] < MAX_HOLES) {
+					System.arraycopy(holeStart, k + 1, holeStart, k + 2, first + holeCount[side] - k - 1);
+					System.arraycopy(holeEnd, k + 1, holeEnd, k + 2, first + holeCount[side] - k - 1);
+					holeStart[k + 1] = upperStart;
+					holeEnd[k + 1] = upperEnd;
+					holeCount[side]++;
+				}
+				return filled;
+			} else if (from < 0) {
+				holeEnd[k] = start;
+				++k;
+			} else if (to > length) {
+				holeStart[k] = end;
+				++k;
+			} else {
+				System.arraycopy(holeStart, k + 1, holeStart, k, first + holeCount[side] - k - 1);
+				System.arraycopy(holeEnd, k + 1, holeEnd, k, first + holeCount[side] - k - 1);
+				holeCount[side]--;
+			}
+		}
+		return filled;
+	}
+
+	private void sample(int flow, long rtt) {
+
+		rttCount[flow]++;
+		rttSum[flow] += rtt;
+		if (rttMin[flow] < 0 || rtt < rttMin[flow])
+			rttMin[flow] = rtt;
+		if (rtt > rttMax[flow])
+			rttMax[flow] = rtt;
+	}
+
+	private long roundTrip(int flow) {
+
+		if (rttMin[flow] >= 0)
+			return rttMin[flow];
+		if (handshakeRtt[flow] >= 0)
+			return handshakeRtt[flow];
+		return DEFAULT_ROUND_TRIP;
+	}
+
+	// New bytes per second over the life of the flow
+	long goodput(int flow, int direction) {
+
+		long duration = lastTime[flow] - firstTime[flow];
+		if (duration <= 0)
+			return 0L;
+		return uniqueBytes[flow * 2 + direction] * 1000000L / duration;
+	}
+
+	// Handshake round trip, round trip samples as count, min, mean and max, and
+	// then retransmitted, out of order and skipped bytes, zero windows and
+	// goodput, each up and down. Times are in microseconds, -1 when unknown.
+	String toString(int flow) {
+
+		int up = flow * 2 + UP;
+		int down = flow * 2 + DOWN;
+		long rttMean = rttCount[flow] == 0 ? -1L : rttSum[flow] / rttCount[flow];
+
+		return handshakeRtt[flow] + " " + rttCount[flow] + " " + rttMin[flow] + " " + rttMean + " " + rttMax[flow]
+				+ " " + retransmittedBytes[up] + " " + retransmittedBytes[down] + " " + outOfOrderBytes[up] + " "
+				+ outOfOrderBytes[down] + " " + skippedBytes[up] + " " + skippedBytes[down] + " "
+				+ zeroWindowCount[up] + " " + zeroWindowCount[down] + " " + goodput(flow, UP) + " "
+				+ goodput(flow, DOWN);
+	}
+
+}
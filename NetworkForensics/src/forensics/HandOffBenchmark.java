@@ -0,0 +1,71 @@
+package forensics;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// Records per second handed from one thread to another through RecordRing and
+// through an ArrayBlockingQueue of the same capacity, which boxes every slot
+// and takes a lock on both ends. The consumer only sums what it takes, so the
+// hand-off itself is what is measured.
+// Run with: java forensics.HandOffBenchmark [iterations] [records]
+class HandOffBenchmark {
+
+	public static void main(String[] args) throws InterruptedException {
+
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+		int records = args.length > 1 ? Integer.parseInt(args[1]) : 10000000;
+
+		for (int iteration = 0; iteration < iterations; ++iteration) {
+
+			long start = System.nanoTime();
+			long ring = ring(records);
+			long ringTime = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			long queue = queue(records);
+			long queueTime = System.nanoTime() - start;
+
+			System.out.print(String.format("%2d ring %7.2f M/s  queue %7.2f M/s  (%d %d)\n", iteration,
+					records * 1000.0 / ringTime, records * 1000.0 / queueTime, ring, queue));
+		}
+	}
+
+	static long ring(int records) throws InterruptedException {
+
+		RecordRing ring = new RecordRing(CaptureReader.RING_CAPACITY);
+		Thread producer = new Thread(() -> {
+			for (int i = 0; i < records; ++i)
+				ring.put(RecordRing.slot(i, i + 1));
+			ring.close();
+		});
+		producer.start();
+
+		long sum = 0L;
+		for (long slot = ring.take(); slot != RecordRing.END; slot = ring.take())
+			sum += RecordRing.frameStart(slot);
+		producer.join();
+		return sum;
+	}
+
+	static long queue(int records) throws InterruptedException {
+
+		BlockingQueue<Long> queue = new ArrayBlockingQueue<Long>(CaptureReader.RING_CAPACITY);
+		Thread producer = new Thread(() -> {
+			try {
+				for (int i = 0; i < records; ++i)
+					queue.put(RecordRing.slot(i, i + 1));
+				queue.put(RecordRing.END);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		producer.start();
+
+		long sum = 0L;
+		for (long slot = queue.take(); slot != RecordRing.END; slot = queue.take())
+			sum += RecordRing.frameStart(slot);
+		producer.join();
+		return sum;
+	}
+
+}
@@ -0,0 +1,128 @@
+package forensics;
+
+import java.util.Arrays;
+
+// Case insensitive lookup of a fixed set of names, such as the header names
+// and request methods the parsers act on. The name is hashed from its length
+// and its first two and last two bytes, case folded, into a table where the
+// multiplier was chosen when the set was built so that no two names share a
+// slot. A lookup is therefore one hash and at most one comparison, whatever
+// the number of names: adding a header does not slow down the others.
+class HeaderNames {
+
+	// Header names, in the order of HEADERS
+	static final int HOST = 0;
+	static final int CONTENT_LENGTH = 1;
+	static final int TRANSFER_ENCODING = 2;
+	static final int CONTENT_ENCODING = 3;
+	static final int CONTENT_TYPE = 4;
+	static final int USER_AGENT = 5;
+
+	static final HeaderNames HEADERS = new HeaderNames("Host", "Content-Length", "Transfer-Encoding",
+			"Content-Encoding", "Content-Type", "User-Agent");
+
+	static final HeaderNames METHODS = new HeaderNames("GET", "HEAD", "POST", "PUT", "DELETE");
+
+	static final int UNKNOWN = -1;
+
+	String[] names;
+	// Per slot the index of the name, UNKNOWN when free
+	int[] slots;
+	int shift;
+	int multiplier;
+
+	HeaderNames(String... names) {
+
+		this.names = names;
+
+		// Four times as many slots as names leaves plenty of collision free
+		// multipliers to find
+		int bits = 2;
+		while ((1 << bits) < 4 * names.length)
+			bits++;
+
+		for (;; bits++) {
+			this.slots = new int[1 << bits];
+			this.shift = 32 - bits;
+			for (int candidate = 0x9e3779b1, tries = 0; tries < 4096; candidate += 2, tries++) {
+				this.multiplier = candidate;
+				if (fill())
+					return;
+			}
+		}
+	}
+
+	private boolean fill() {
+
+		Arrays.fill(slots, UNKNOWN);
+		for (int index = 0; index < names.length; ++index) {
+			String name = names[index];
+			int slot = slot(hash(name, 0, name.length()));
+			if (slots[slot] != UNKNOWN)
+				return false;
+			slots[slot] = index;
+		}
+		return true;
+	}
+
+	private int slot(int hash) {
+		return (hash * multiplier) >>> shift;
+	}
+
+	// ASCII letters fold to lower case, other bytes may collide but are told
+	// apart by the comparison
+	private static int fold(int c) {
+		return c | 0x20;
+	}
+
+	private static int hash(String text, int start, int end) {
+		int length = end - start;
+		int hash = length;
+		hash = hash * 31 + fold(text.charAt(start));
+		hash = hash * 31 + fold(text.charAt(start + Math.min(1, length - 1)));
+		hash = hash * 31 + fold(text.charAt(end - Math.min(2, length)));
+		hash = hash * 31 + fold(text.charAt(end - 1));
+		return hash;
+	}
+
+	private static int hash(byte[] data, int start, int end) {
+		int length = end - start;
+		int hash = length;
+		hash = hash * 31 + fold(data[start] & 0xff);
+		hash = hash * 31 + fold(data[start + Math.min(1, length - 1)] & 0xff);
+		hash = hash * 31 + fold(data[end - Math.min(2, length)] & 0xff);
+		hash = hash * 31 + fold(data[end - 1] & 0xff);
+		return hash;
+	}
+
+	// Index of the name spelled by data[start, end), UNKNOWN if none
+	int lookup(byte[] data, int start, int end) {
+
+		if (end <= start)
+			return UNKNOWN;
+
+		int index = slots[slot(hash(data, start, end))];
+		if (index == UNKNOWN || names[index].length() != end - start)
+			return UNKNOWN;
+
+		String name = names[index];
+		for (int k = 0; k < name.length(); ++k)
+			if (Character.toLowerCase((char) (data[start + k] & 0xff)) != Character.toLowerCase(name.charAt(k)))
+				return UNKNOWN;
+		return index;
+	}
+
+	// Index of the name spelled by text[start, end), UNKNOWN if none
+	int lookup(String text, int start, int end) {
+
+		if (end <= start)
+			return UNKNOWN;
+
+		int index = slots[slot(hash(text, start, end))];
+		if (index == UNKNOWN || names[index].length() != end - start
+				|| !text.regionMatches(true, start, names[index], 0, end - start))
+			return UNKNOWN;
+		return index;
+	}
+
+}
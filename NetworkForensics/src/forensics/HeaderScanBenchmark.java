@@ -0,0 +1,75 @@
+package forensics;
+
+import java.nio.charset.StandardCharsets;
+
+// Compares splitting HTTP headers into lines and words the way the request
+// parser used to, a byte at a time into a StringBuilder, with ByteScanner.
+// Run with: java forensics.HeaderScanBenchmark [iterations]
+class HeaderScanBenchmark {
+
+	static final String HEADER = "GET /images/2016/11/logo-large.png?v=3 HTTP/1.1\r\n" + "Host: www.example.com\r\n"
+			+ "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:50.0) Gecko/20100101 Firefox/50.0\r\n"
+			+ "Accept: image/png,image/*;q=0.8,*/*;q=0.5\r\n" + "Accept-Language: en-US,en;q=0.5\r\n"
+			+ "Accept-Encoding: gzip, deflate\r\n" + "Referer: http://www.example.com/index.html\r\n"
+			+ "Cookie: session=0123456789abcdef0123456789abcdef; theme=dark\r\n" + "Connection: keep-alive\r\n\r\n";
+
+	public static void main(String[] args) {
+
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+
+		byte[] data = new byte[HEADER.length() * 4096];
+		byte[] header = HEADER.getBytes(StandardCharsets.ISO_8859_1);
+		for (int offset = 0; offset < data.length; offset += header.length)
+			System.arraycopy(header, 0, data, offset, header.length);
+
+		ByteScanner scanner = new ByteScanner(data);
+
+		for (int iteration = 0; iteration < iterations; ++iteration) {
+
+			long start = System.nanoTime();
+			long scalar = scalar(data);
+			long scalarTime = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			long words = wordAtATime(scanner, data.length);
+			long wordTime = System.nanoTime() - start;
+
+			System.out.print(String.format("%2d scalar %6.3f ns/byte  scanner %6.3f ns/byte  (%d %d)\n", iteration,
+					(double) scalarTime / data.length, (double) wordTime / data.length, scalar, words));
+		}
+	}
+
+	// Sum of line lengths and first space positions, so neither loop is dead
+	static long scalar(byte[] data) {
+
+		long sum = 0L;
+		int prevChar = 0;
+		StringBuilder singleLine = new StringBuilder();
+
+		for (int j = 0; j < data.length; ++j) {
+			int curChar = data[j];
+			singleLine.append((char) curChar);
+			if (prevChar == 13 && curChar == 10) {
+				sum += singleLine.length() - 2 + singleLine.indexOf(" ");
+				singleLine.delete(0, singleLine.length());
+			}
+			prevChar = curChar;
+		}
+		return sum;
+	}
+
+	static long wordAtATime(ByteScanner scanner, int end) {
+
+		long sum = 0L;
+		for (int lineStart = 0;;) {
+			int lineEnd = scanner.indexOfLineEnd(lineStart, end);
+			if (lineEnd == -1)
+				break;
+			int space = scanner.indexOf(lineStart, lineEnd, ' ');
+			sum += lineEnd - lineStart + (space == -1 ? -1 : space - lineStart);
+			lineStart = lineEnd + 2;
+		}
+		return sum;
+	}
+
+}
@@ -0,0 +1,80 @@
+package forensics;
+
+import java.io.PrintStream;
+
+import forensics.NetworkForensics.HttpConnection;
+
+// Top hosts, URLs, clients and servers of the HTTP transactions, by response
+// bytes and by transaction count. Every dimension and weight has a space-saving
+// summary that tracks the candidates, and a count-min sketch. A reported count
+// is the smaller of the two estimates, both of which only ever overcount.
+// The summaries and sketches are fixed in size by the number of keys to
+// report, not by the traffic. The stage as a whole is not: task5 takes its
+// transactions from task3, which holds them all in memory first.
+class HeavyHitters {
+
+	static final String[] DIMENSIONS = { "host", "url", "client", "server" };
+	static final String[] WEIGHTS = { "bytes", "transactions" };
+
+	static final int SKETCH_DEPTH = 4;
+	static final int SKETCH_WIDTH = 2048;
+
+	int topCount;
+	SpaceSaving[][] summaries;
+	CountMinSketch[][] sketches;
+
+	HeavyHitters(int topCount) {
+
+		this.topCount = topCount;
+		// Monitoring more keys than reported keeps the top of the list accurate
+		int capacity = Math.max(4 * topCount, 64);
+
+		this.summaries = new SpaceSaving[DIMENSIONS.length][WEIGHTS.length];
+		this.sketches = new CountMinSketch[DIMENSIONS.length][WEIGHTS.length];
+		for (int dimension = 0; dimension < DIMENSIONS.length; ++dimension) {
+			for (int weight = 0; weight < WEIGHTS.length; ++weight) {
+				summaries[dimension][weight] = new SpaceSaving(capacity);
+				sketches[dimension][weight] = new CountMinSketch(SKETCH_DEPTH, SKETCH_WIDTH);
+			}
+		}
+	}
+
+	void add(HttpConnection httpConnection) {
+
+		String[] keys = { httpConnection.hostname.toLowerCase(), httpConnection.requestedUrl.toLowerCase(),
+				httpConnection.connection.sourceIp.toString(), httpConnection.connection.destinationIp.toString() };
+		long[] weights = { httpConnection.responseBodyLength, 1L };
+
+		for (int dimension = 0; dimension < DIMENSIONS.length; ++dimension) {
+			for (int weight = 0; weight < WEIGHTS.length; ++weight) {
+				summaries[dimension][weight].add(keys[dimension], weights[weight]);
+				sketches[dimension][weight].add(keys[dimension], weights[weight]);
+			}
+		}
+	}
+
+	// One "<dimension> <weight> <rank> <key> <count> <error>" line per entry,
+	// where the true count lies between count - error and count
+	void print(PrintStream out) {
+
+		for (int dimension = 0; dimension < DIMENSIONS.length; ++dimension) {
+			for (int weight = 0; weight < WEIGHTS.length; ++weight) {
+
+				SpaceSaving summary = summaries[dimension][weight];
+				CountMinSketch sketch = sketches[dimension][weight];
+				int[] top = summary.top(topCount);
+
+				for (int rank = 0; rank < top.length; ++rank) {
+					String key = summary.keys[top[rank]];
+					long count = Math.min(summary.counts[top[rank]], sketch.estimate(key));
+					long lowerBound = summary.counts[top[rank]] - summary.errors[top[rank]];
+					long error = Math.max(0L, count - lowerBound);
+
+					out.print(DIMENSIONS[dimension] + " " + WEIGHTS[weight] + " " + (rank + 1) + " "
+							+ (key.isEmpty() ? "n/a" : key) + " " + count + " " + error + "\n");
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,400 @@
+package forensics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import forensics.Checkpoint.PendingPacket;
+import forensics.NetworkForensics.ConnectionTuple;
+import forensics.NetworkForensics.HttpConnection;
+import forensics.NetworkForensics.Packet;
+import forensics.NetworkForensics.TcpConnection;
+
+// The HTTP transactions of a capture, as used by task3, task4 and task5,
+// worked out by a pipeline of stages:
+//
+//	decoder -> flow table -> HTTP parser -> collector
+//
+// The decoder walks the capture and emits the port 80 TCP packets with the
+// connection they belong to; with --resolve it also takes the DNS answers in
+// the same pass and names the server of each packet as of that time. The flow
+// table groups them per connection and
+// hands the connections on once the capture has been read, since a late
+// retransmission may still change a stream. The parser pairs requests and
+// responses per connection and emits them in request order, and the collector
+// keeps the transactions and may pass them to the image file writer, whose
+// bounded queue throttles the stages before it. The transactions come out of
+// a merge of the runs in request order the collector sees, no global sort.
+class HttpPipeline {
+
+	static final int BATCH_SIZE = 256;
+	// Connections are much heavier than packets
+	static final int CONNECTION_BATCH_SIZE = 16;
+	static final int CAPACITY = 8;
+
+	static class Decoder extends Pipeline.Source<PendingPacket> {
+
+		PacketView view;
+		Checkpoint checkpoint;
+		DnsCache dnsCache;
+
+		Decoder(PacketView view, Checkpoint checkpoint, DnsCache dnsCache) {
+			super("decoder", BATCH_SIZE);
+			this.view = view;
+			this.checkpoint = checkpoint;
+			this.dnsCache = dnsCache;
+		}
+
+		@Override
+		void produce() throws Exception {
+
+			while (view.next()) {
+
+				if (dnsCache != null)
+					dnsCache.add(view);
+
+				// Only Http Connections required for this task
+				if (view.isTcp() && (view.sourcePort() == 80 || view.destinationPort() == 80)) {
+
+					Packet packet = new Packet();
+					packet.sequenceNumber = view.sequenceNumber();
+					packet.acknowledgementNumber = view.acknowledgementNumber();
+					packet.captureTime = view.seconds();
+					packet.microOffset = view.micros();
+					packet.payloadStart = view.payloadStart();
+					packet.payloadLength = view.payloadLength();
+
+					PendingPacket entry = new PendingPacket(NetworkForensics.clientServerTuple(view),
+							view.destinationPort() == 80, packet);
+					if (dnsCache != null)
+						entry.serverName = dnsCache.lookup(view.destinationPort() == 80 ? view.destinationIp()
+								: view.sourceIp(), view.timestamp());
+					if (checkpoint != null)
+						checkpoint.add(entry);
+					emit(entry);
+				}
+
+				if (checkpoint != null)
+					checkpoint.advance(view.nextStart());
+			}
+
+			if (checkpoint != null) {
+				try {
+					checkpoint.close(view.nextStart());
+				} catch (IOException e) {
+					System.err.println("Error writing " + checkpoint.file + ": " + e.getMessage());
+				}
+			}
+		}
+
+	}
+
+	static class FlowTable extends Pipeline.Stage<PendingPacket, Entry<ConnectionTuple, TcpConnection>> {
+
+		Map<ConnectionTuple, TcpConnection> table;
+
+		FlowTable(Map<ConnectionTuple, TcpConnection> table) {
+			super("flows", CONNECTION_BATCH_SIZE, CAPACITY);
+			this.table = table;
+		}
+
+		@Override
+		void process(List<PendingPacket> entries) {
+
+			for (PendingPacket entry : entries) {
+
+				TcpConnection tcpConnection = table.get(entry.connection);
+				if (tcpConnection == null) {
+					tcpConnection = new TcpConnection();
+					tcpConnection.source = entry.connection.sourceIp;
+					tcpConnection.destination = entry.connection.destinationIp;
+					tcpConnection.sport = entry.connection.sourcePort;
+					tcpConnection.dport = entry.connection.destinationPort;
+					tcpConnection.startTime = entry.packet.captureTime * 1000000L + entry.packet.microOffset;
+					tcpConnection.serverName = entry.serverName;
+					table.put(entry.connection, tcpConnection);
+				}
+
+				// Request payloads are parsed straight from the capture, the
+				// response stream is reassembled from the packet offsets
+				if (entry.upstream) {
+					tcpConnection.upstreamPackets.add(entry.packet);
+					tcpConnection.upDataLength += entry.packet.payloadLength;
+				} else {
+					tcpConnection.downstreamPackets.add(entry.packet);
+					tcpConnection.downDataLength += entry.packet.payloadLength;
+				}
+			}
+		}
+
+		@Override
+		void finish() throws InterruptedException {
+
+			for (Entry<ConnectionTuple, TcpConnection> entry : table.entrySet())
+				emit(entry);
+		}
+
+	}
+
+	// Emits the answered requests of each connection, or with images only the
+	// successful responses to image requests, with the body located
+	static class HttpParser extends Pipeline.Stage<Entry<ConnectionTuple, TcpConnection>, HttpConnection> {
+
+		byte[] captureData;
+		ByteScanner scanner;
+		boolean images;
+		boolean decompress;
+
+		HttpParser(byte[] captureData, boolean images, boolean decompress) {
+			super("http", BATCH_SIZE, CAPACITY);
+			this.captureData = captureData;
+			this.scanner = new ByteScanner(captureData);
+			this.images = images;
+			this.decompress = decompress;
+		}
+
+		@Override
+		void process(List<Entry<ConnectionTuple, TcpConnection>> connections) throws InterruptedException {
+
+			for (Entry<ConnectionTuple, TcpConnection> entry : connections) {
+				if (images) {
+					parseImages(entry.getKey(), entry.getValue());
+				} else {
+					parseTransactions(entry.getKey(), entry.getValue());
+				}
+			}
+		}
+
+		HttpConnection request(ConnectionTuple connection, Packet packet) {
+
+			HttpConnection httpRequestConnection = new HttpConnection();
+			httpRequestConnection.connection = connection;
+			httpRequestConnection.acknowledgementNumber = packet.acknowledgementNumber;
+			httpRequestConnection.sequenceNumber = packet.sequenceNumber;
+			httpRequestConnection.receptionTime = String.valueOf(packet.captureTime) + " "
+					+ String.valueOf(packet.microOffset);
+
+			httpRequestConnection.captureTime = packet.captureTime;
+			httpRequestConnection.microOffset = packet.microOffset;
+			return httpRequestConnection;
+		}
+
+		void parseTransactions(ConnectionTuple connection, TcpConnection tcpConnection) throws InterruptedException {
+
+			Map<Long, HttpConnection> httpConnectionReqTable = new HashMap<Long, HttpConnection>();
+			Map<Long, HttpConnection> httpConnectionResTable = new HashMap<Long, HttpConnection>();
+			// Request order, the upstream packets are in capture order
+			List<Long> requestKeys = new ArrayList<Long>();
+
+			for (Packet packet : tcpConnection.upstreamPackets) {
+				HttpConnection httpRequestConnection = request(connection, packet);
+				// Storing the expected acknowledgement Number of response
+				if (NetworkForensics.parseRequest(scanner, packet, httpRequestConnection)) {
+					long requestKey = httpRequestConnection.sequenceNumber + packet.payloadLength;
+					if (httpConnectionReqTable.put(requestKey, httpRequestConnection) == null)
+						requestKeys.add(requestKey);
+				}
+			}
+
+			ReassembledStream responseStream = new ReassembledStream(captureData, tcpConnection.downstreamPackets);
+			try {
+				NetworkForensics.parseResponses(responseStream, httpConnectionReqTable, httpConnectionResTable);
+			} catch (IOException e) {
+				System.out.println("I/O exception");
+			}
+
+			for (long requestKey : requestKeys) {
+
+				HttpConnection httpConnection = httpConnectionReqTable.get(requestKey);
+				HttpConnection httpResponseConnection = httpConnectionResTable.get(requestKey);
+				if (httpResponseConnection == null)
+					continue;
+
+				httpConnection.responseCode = httpResponseConnection.responseCode;
+				httpConnection.responseBodyLength = httpResponseConnection.responseBodyLength;
+				httpConnection.responseTimestamp = httpResponseConnection.responseTimestamp;
+				httpConnection.lastByteTimestamp = httpResponseConnection.lastByteTimestamp;
+				httpConnection.serverName = tcpConnection.serverName;
+
+				if (decompress) {
+					try {
+						httpConnection.decodedBodyLength = NetworkForensics.writeResponseBody(httpResponseConnection,
+								null, true);
+					} catch (IOException e) {
+						System.out.println("I/O exception");
+					}
+				}
+
+				emit(httpConnection);
+			}
+		}
+
+		void parseImages(ConnectionTuple connection, TcpConnection tcpConnection) throws InterruptedException {
+
+			Map<Long, HttpConnection> httpConnectionReqTable = new HashMap<Long, HttpConnection>();
+			Map<Long, HttpConnection> httpConnectionResTable = new HashMap<Long, HttpConnection>();
+			List<Long> requestKeys = new ArrayList<Long>();
+
+			for (Packet packet : tcpConnection.upstreamPackets) {
+				HttpConnection httpRequestConnection = request(connection, packet);
+
+				// Every request is kept so that responses to HEAD can be
+				// recognised while walking the downlink
+				if (NetworkForensics.parseRequest(scanner, packet, httpRequestConnection)) {
+					httpRequestConnection.imageType = imageType(httpRequestConnection.requestedUrl);
+
+					// Storing the expected acknowledgement Number of response
+					long requestKey = httpRequestConnection.sequenceNumber + packet.payloadLength;
+					httpConnectionReqTable.put(requestKey, httpRequestConnection);
+					requestKeys.add(requestKey);
+				}
+			}
+
+			ReassembledStream responseStream = new ReassembledStream(captureData, tcpConnection.downstreamPackets);
+			try {
+				NetworkForensics.parseResponses(responseStream, httpConnectionReqTable, httpConnectionResTable);
+			} catch (IOException e) {
+				System.out.println("I/O exception");
+			}
+
+			for (long requestKey : requestKeys) {
+
+				HttpConnection httpConnection = httpConnectionReqTable.get(requestKey);
+				HttpConnection httpResponseConnection = httpConnectionResTable.get(requestKey);
+
+				if (httpConnection.imageType.isEmpty() || httpResponseConnection == null)
+					continue;
+
+				// Only successful responses carry the image
+				if (httpResponseConnection.responseCode != 200 || httpResponseConnection.responseBodyLength == 0)
+					continue;
+
+				httpConnection.responseCode = httpResponseConnection.responseCode;
+				httpConnection.responseBodyLength = httpResponseConnection.responseBodyLength;
+				httpConnection.responseTimestamp = httpResponseConnection.responseTimestamp;
+				httpConnection.lastByteTimestamp = httpResponseConnection.lastByteTimestamp;
+				httpConnection.responseStream = httpResponseConnection.responseStream;
+				httpConnection.bodyPosition = httpResponseConnection.bodyPosition;
+				httpConnection.chunkedEncoding = httpResponseConnection.chunkedEncoding;
+				httpConnection.contentEncoding = httpResponseConnection.contentEncoding;
+				httpConnection.decodedBodyLength = httpConnection.responseBodyLength;
+
+				// The chunk size of a decompressed image is only known after a
+				// counting pass over the body
+				if (decompress && InflatingOutputStream.encodingOf(httpConnection.contentEncoding) != 0) {
+					try {
+						httpConnection.decodedBodyLength = NetworkForensics.writeResponseBody(httpConnection, null,
+								true);
+					} catch (IOException e) {
+						System.out.println("I/O exception");
+					}
+					if (httpConnection.decodedBodyLength == 0)
+						continue;
+				}
+
+				emit(httpConnection);
+			}
+		}
+
+		// Image format from the extension of the URL, empty for other URLs
+		static String imageType(String requestedUrl) {
+
+			String extension1 = " ";
+			String extension2 = " ";
+
+			if (requestedUrl.length() > 5) {
+				extension1 = requestedUrl.substring(requestedUrl.length() - 5);
+			}
+			if (requestedUrl.length() > 4) {
+				extension2 = requestedUrl.substring(requestedUrl.length() - 4);
+			}
+			// Only image formats required
+			if (extension1.equalsIgnoreCase(".jpeg") || extension1.equalsIgnoreCase(".webp")) {
+				return extension1.substring(1).toLowerCase();
+			} else if (extension2.equalsIgnoreCase(".jpg") || extension2.equalsIgnoreCase(".png")
+					|| extension2.equalsIgnoreCase(".gif")) {
+				return extension2.substring(1).toLowerCase();
+			}
+			return "";
+		}
+
+	}
+
+	// Keeps the transactions as runs in request order. A connection arrives in
+	// one piece and in order, so a run is at least a connection long; a new
+	// one starts wherever the time goes back.
+	static class Collector extends Pipeline.Stage<HttpConnection, Void> {
+
+		List<List<HttpConnection>> runs;
+		List<HttpConnection> run;
+		long lastTimestamp;
+		ExtractedFileWriter fileWriter;
+
+		Collector(ExtractedFileWriter fileWriter) {
+			super("collector", BATCH_SIZE, CAPACITY);
+			this.runs = new ArrayList<List<HttpConnection>>();
+			this.run = null;
+			this.lastTimestamp = 0L;
+			this.fileWriter = fileWriter;
+		}
+
+		@Override
+		void process(List<HttpConnection> httpConnections) {
+
+			for (HttpConnection httpConnection : httpConnections) {
+				long timestamp = httpConnection.timestamp();
+				if (run == null || timestamp < lastTimestamp) {
+					run = new ArrayList<HttpConnection>();
+					runs.add(run);
+				}
+				run.add(httpConnection);
+				lastTimestamp = timestamp;
+			}
+
+			// The files are written while the remaining connections are
+			// parsed, a full writer queue holds the parser back
+			if (fileWriter != null) {
+				for (HttpConnection httpConnection : httpConnections)
+					fileWriter.submit(httpConnection);
+			}
+		}
+
+	}
+
+	// Runs the stages over the capture and returns the transactions in the
+	// order of the request time. The flow table may already hold restored
+	// connections. The DNS cache, null without --resolve, is filled by the
+	// decoder.
+	static Iterable<HttpConnection> run(byte[] captureData, PacketView view, Map<ConnectionTuple, TcpConnection> table,
+			Checkpoint checkpoint, DnsCache dnsCache, Options options, boolean images, ExtractedFileWriter fileWriter) {
+
+		Decoder decoder = new Decoder(view, checkpoint, dnsCache);
+		FlowTable flows = new FlowTable(table);
+		HttpParser parser = new HttpParser(captureData, images, options.decompress);
+		Collector collector = new Collector(fileWriter);
+
+		decoder.subscribe(flows);
+		flows.subscribe(parser);
+		parser.subscribe(collector);
+		decoder.start();
+
+		try {
+			collector.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		if (options.pipelineStats) {
+			System.err.println(decoder.stats());
+			System.err.println(flows.stats());
+			System.err.println(parser.stats());
+			System.err.println(collector.stats());
+		}
+
+		return TransactionMerge.of(collector.runs);
+	}
+
+}
@@ -0,0 +1,92 @@
+package forensics;
+
+// HyperLogLog distinct counter (Flajolet et al. 2007) over 64 bit hashes.
+// With precision p it uses 2^p one byte registers and has a relative standard
+// error of about 1.04 / sqrt(2^p).
+class HyperLogLog {
+
+	static final int MIN_PRECISION = 4;
+	static final int MAX_PRECISION = 18;
+
+	int precision;
+	int registerCount;
+	byte[] registers;
+
+	HyperLogLog(int precision) {
+
+		if (precision < MIN_PRECISION || precision > MAX_PRECISION)
+			throw new IllegalArgumentException("HyperLogLog precision must be between " + MIN_PRECISION + " and "
+					+ MAX_PRECISION + ": " + precision);
+
+		this.precision = precision;
+		this.registerCount = 1 << precision;
+		this.registers = new byte[registerCount];
+	}
+
+	void add(long hash) {
+
+		// The top p bits pick the register, the rank is the position of the
+		// first set bit in the rest
+		int index = (int) (hash >>> (64 - precision));
+		long rest = (hash << precision) | (1L << (precision - 1));
+		int rank = Long.numberOfLeadingZeros(rest) + 1;
+
+		if (rank > registers[index])
+			registers[index] = (byte) rank;
+	}
+
+	// Union with a sketch of the same precision, as if its hashes had been
+	// added to this one
+	void merge(HyperLogLog other) {
+
+		for (int index = 0; index < registerCount; ++index) {
+			if (other.registers[index] > registers[index])
+				registers[index] = other.registers[index];
+		}
+	}
+
+	long estimate() {
+
+		double sum = 0.0;
+		int zeroRegisters = 0;
+		for (byte register : registers) {
+			sum += 1.0 / (1L << register);
+			if (register == 0)
+				zeroRegisters++;
+		}
+
+		double alpha;
+		if (registerCount == 16) {
+			alpha = 0.673;
+		} else if (registerCount == 32) {
+			alpha = 0.697;
+		} else if (registerCount == 64) {
+			alpha = 0.709;
+		} else {
+			alpha = 0.7213 / (1.0 + 1.079 / registerCount);
+		}
+
+		double estimate = alpha * registerCount * registerCount / sum;
+
+		// Small range correction: linear counting while registers are still empty
+		if (estimate <= 2.5 * registerCount && zeroRegisters != 0)
+			estimate = registerCount * Math.log((double) registerCount / zeroRegisters);
+
+		return Math.round(estimate);
+	}
+
+	double relativeError() {
+		return 1.04 / Math.sqrt(registerCount);
+	}
+
+	// MurmurHash3 64 bit finalizer
+	static long mix(long value) {
+		value ^= value >>> 33;
+		value *= 0xff51afd7ed558ccdL;
+		value ^= value >>> 33;
+		value *= 0xc4ceb9fe1a85ec53L;
+		value ^= value >>> 33;
+		return value;
+	}
+
+}
@@ -0,0 +1,46 @@
+package forensics;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.Inflater;
+
+// Reusable inflaters and scratch buffers for body decompression. Inflaters
+// hold native memory, so they are reset and handed out again instead of being
+// created for every response. Anything beyond the pool size is released.
+class InflaterPool {
+
+	static final int POOL_SIZE = 16;
+	static final int BUFFER_SIZE = 16384;
+
+	// zlib wrapped and raw deflate need differently configured inflaters
+	static final ArrayBlockingQueue<Inflater> zlibInflaters = new ArrayBlockingQueue<Inflater>(POOL_SIZE);
+	static final ArrayBlockingQueue<Inflater> rawInflaters = new ArrayBlockingQueue<Inflater>(POOL_SIZE);
+	static final ArrayBlockingQueue<byte[]> buffers = new ArrayBlockingQueue<byte[]>(POOL_SIZE);
+
+	static Inflater borrowInflater(boolean nowrap) {
+
+		Inflater inflater = (nowrap ? rawInflaters : zlibInflaters).poll();
+		if (inflater == null)
+			inflater = new Inflater(nowrap);
+		return inflater;
+	}
+
+	static void releaseInflater(Inflater inflater, boolean nowrap) {
+
+		inflater.reset();
+		if (!(nowrap ? rawInflaters : zlibInflaters).offer(inflater))
+			inflater.end();
+	}
+
+	static byte[] borrowBuffer() {
+
+		byte[] buffer = buffers.poll();
+		if (buffer == null)
+			buffer = new byte[BUFFER_SIZE];
+		return buffer;
+	}
+
+	static void releaseBuffer(byte[] buffer) {
+		buffers.offer(buffer);
+	}
+
+}
@@ -0,0 +1,211 @@
+package forensics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+// Decodes a gzip or deflate Content-Encoding as the compressed bytes are
+// written to it, and passes the decoded bytes on to out. With a null out it
+// only counts them. A corrupt body stops the decoding, whatever was decoded up
+// to that point is kept.
+class InflatingOutputStream extends OutputStream {
+
+	static final int GZIP = 1;
+	static final int DEFLATE = 2;
+
+	// gzip header fields, RFC 1952
+	static final int GZIP_FIXED_HEADER_LENGTH = 10;
+	static final int FHCRC = 2;
+	static final int FEXTRA = 4;
+	static final int FNAME = 8;
+	static final int FCOMMENT = 16;
+
+	static final int HEADER_FIXED = 0;
+	static final int HEADER_EXTRA_LENGTH = 1;
+	static final int HEADER_EXTRA = 2;
+	static final int HEADER_NAME = 3;
+	static final int HEADER_COMMENT = 4;
+	static final int HEADER_CRC = 5;
+	static final int HEADER_DONE = 6;
+
+	OutputStream out;
+	int encoding;
+	long decodedLength;
+
+	Inflater inflater;
+	boolean nowrap;
+	byte[] buffer;
+	boolean finished;
+
+	// gzip header parsing, the header can be split across writes
+	int headerStage;
+	int headerBytes;
+	int headerFlags;
+	int fieldBytes;
+	int extraRemaining;
+
+	// First byte of a deflate body, kept until the second one tells whether
+	// the data has a zlib wrapper
+	int pendingByte;
+
+	InflatingOutputStream(OutputStream out, int encoding) {
+		this.out = out;
+		this.encoding = encoding;
+		this.decodedLength = 0L;
+		this.inflater = null;
+		this.buffer = null;
+		this.finished = false;
+		this.headerStage = HEADER_FIXED;
+		this.headerBytes = 0;
+		this.headerFlags = 0;
+		this.fieldBytes = 0;
+		this.extraRemaining = 0;
+		this.pendingByte = -1;
+	}
+
+	// Encoding constant for a Content-Encoding value, 0 if it is not supported
+	static int encodingOf(String contentEncoding) {
+
+		if (contentEncoding.equalsIgnoreCase("gzip") || contentEncoding.equalsIgnoreCase("x-gzip"))
+			return GZIP;
+		if (contentEncoding.equalsIgnoreCase("deflate"))
+			return DEFLATE;
+		return 0;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+
+		int end = off + len;
+
+		while (!finished && inflater == null && off < end) {
+			if (encoding == GZIP) {
+				if (gzipHeaderByte(Byte.toUnsignedInt(b[off++])))
+					start(true);
+			} else if (pendingByte == -1) {
+				pendingByte = Byte.toUnsignedInt(b[off++]);
+			} else {
+				// A zlib header is CMF FLG with CM 8 and CMF*256+FLG divisible by 31,
+				// anything else is taken as raw deflate
+				int flag = Byte.toUnsignedInt(b[off]);
+				boolean zlib = (pendingByte & 0x0f) == 8 && ((pendingByte << 8) | flag) % 31 == 0;
+				start(!zlib);
+				inflate(new byte[] { (byte) pendingByte }, 0, 1);
+			}
+		}
+
+		if (!finished && inflater != null && off < end)
+			inflate(b, off, end - off);
+	}
+
+	private void start(boolean nowrap) {
+		this.nowrap = nowrap;
+		this.inflater = InflaterPool.borrowInflater(nowrap);
+		this.buffer = InflaterPool.borrowBuffer();
+	}
+
+	private void inflate(byte[] b, int off, int len) throws IOException {
+
+		inflater.setInput(b, off, len);
+		try {
+			// A full buffer can leave output pending even once all input is
+			// consumed, so keep going until inflate has nothing more to give
+			while (!inflater.finished()) {
+				int count = inflater.inflate(buffer);
+				if (count == 0) {
+					if (inflater.needsInput() || inflater.needsDictionary())
+						break;
+					continue;
+				}
+				if (out != null)
+					out.write(buffer, 0, count);
+				decodedLength += count;
+			}
+		} catch (DataFormatException e) {
+			finished = true;
+		}
+		// Whatever follows the compressed data (the gzip trailer) is ignored
+		if (inflater.finished() || inflater.needsDictionary())
+			finished = true;
+	}
+
+	// Header field that follows the given one, depending on the flags
+	private int stageAfter(int stage) {
+
+		if (stage < HEADER_EXTRA_LENGTH && (headerFlags & FEXTRA) != 0)
+			return HEADER_EXTRA_LENGTH;
+		if (stage < HEADER_NAME && (headerFlags & FNAME) != 0)
+			return HEADER_NAME;
+		if (stage < HEADER_COMMENT && (headerFlags & FCOMMENT) != 0)
+			return HEADER_COMMENT;
+		if (stage < HEADER_CRC && (headerFlags & FHCRC) != 0)
+			return HEADER_CRC;
+		return HEADER_DONE;
+	}
+
+	// Consumes one gzip header byte and returns true once the header is complete
+	private boolean gzipHeaderByte(int b) {
+
+		headerBytes++;
+
+		switch (headerStage) {
+		case HEADER_FIXED:
+			if (headerBytes == 4)
+				headerFlags = b;
+			if (headerBytes == GZIP_FIXED_HEADER_LENGTH)
+				headerStage = stageAfter(HEADER_FIXED);
+			break;
+		case HEADER_EXTRA_LENGTH:
+			// Two bytes, little endian
+			if (fieldBytes == 0) {
+				extraRemaining = b;
+				fieldBytes = 1;
+			} else {
+				extraRemaining |= b << 8;
+				fieldBytes = 0;
+				headerStage = extraRemaining == 0 ? stageAfter(HEADER_EXTRA) : HEADER_EXTRA;
+			}
+			break;
+		case HEADER_EXTRA:
+			if (--extraRemaining == 0)
+				headerStage = stageAfter(HEADER_EXTRA);
+			break;
+		case HEADER_NAME:
+		case HEADER_COMMENT:
+			// Zero terminated strings
+			if (b == 0)
+				headerStage = stageAfter(headerStage);
+			break;
+		case HEADER_CRC:
+			if (fieldBytes == 0) {
+				fieldBytes = 1;
+			} else {
+				fieldBytes = 0;
+				headerStage = HEADER_DONE;
+			}
+			break;
+		}
+
+		return headerStage == HEADER_DONE;
+	}
+
+	// Returns the inflater and the buffer to the pool, out is left open
+	@Override
+	public void close() {
+
+		if (inflater != null) {
+			InflaterPool.releaseInflater(inflater, nowrap);
+			InflaterPool.releaseBuffer(buffer);
+			inflater = null;
+			buffer = null;
+		}
+		finished = true;
+	}
+
+}
@@ -0,0 +1,358 @@
+package forensics;
+
+// Reassembles fragmented IPv4 datagrams in front of the tasks, which all read
+// the transport header right after the IP header. The capture is rewritten in
+// place: every fragment record is removed, and a completed datagram takes the
+// place of its last fragment as one record with the offset and MF cleared.
+// The rewritten capture is never longer than the original, since a datagram
+// is never longer than the fragments it was built from.
+//
+// Reassembly follows the hole list algorithm of RFC 815. All memory is taken
+// up front: a fixed number of datagram slots, each with a full size buffer
+// and a bounded hole list. A datagram that needs more holes than that, grows
+// past the IPv4 maximum or is not complete within the timeout is dropped, and
+// when all slots are busy the oldest datagram makes room for the new one. A
+// fragment flood therefore costs a bounded amount of memory and time.
+class Ipv4Defragmenter {
+
+	static final int MAX_DATAGRAMS = 64;
+	static final int MAX_HOLES = 32;
+	static final int MAX_PAYLOAD_LENGTH = 65535;
+	static final int MAX_HEADER_LENGTH = NetworkForensics.ETHERNET_HEADER_LENGTH + 60;
+	// Capture time a datagram may take to complete, as on Linux
+	static final long TIMEOUT = 30L;
+
+	static final int INFINITY = Integer.MAX_VALUE;
+
+	static class Datagram {
+
+		boolean used;
+		int sourceIp;
+		int destinationIp;
+		int identification;
+		int protocol;
+		long firstSeen;
+
+		// Ethernet and IP header of the first fragment
+		byte[] header;
+		int headerLength;
+		byte[] payload;
+		// Set once the fragment without MF has arrived
+		int payloadLength;
+
+		int[] holeFirst;
+		int[] holeLast;
+		int holeCount;
+
+		Datagram() {
+			this.used = false;
+			this.sourceIp = 0;
+			this.destinationIp = 0;
+			this.identification = 0;
+			this.protocol = 0;
+			this.firstSeen = 0L;
+			this.header = new byte[MAX_HEADER_LENGTH];
+			this.headerLength = 0;
+			this.payload = new byte[MAX_PAYLOAD_LENGTH];
+			this.payloadLength = 0;
+			this.holeFirst = new int[MAX_HOLES];
+			this.holeLast = new int[MAX_HOLES];
+			this.holeCount = 0;
+		}
+
+		void start(int sourceIp, int destinationIp, int identification, int protocol, long captureTime) {
+			this.used = true;
+			this.sourceIp = sourceIp;
+			this.destinationIp = destinationIp;
+			this.identification = identification;
+			this.protocol = protocol;
+			this.firstSeen = captureTime;
+			this.headerLength = 0;
+			this.payloadLength = 0;
+			this.holeFirst[0] = 0;
+			this.holeLast[0] = INFINITY;
+			this.holeCount = 1;
+		}
+
+		// Fills [first, last] and updates the hole list, false when the
+		// datagram needs more holes than there is room for
+		boolean fill(int first, int last, boolean moreFragments) {
+
+			for (int k = 0; k < holeCount;) {
+
+				int holeStart = holeFirst[k];
+				int holeEnd = holeLast[k];
+				if (first > holeEnd || last < holeStart) {
+					++k;
+					continue;
+				}
+
+				// The hole is replaced by the parts the fragment leaves open
+				holeCount--;
+				holeFirst[k] = holeFirst[holeCount];
+				holeLast[k] = holeLast[holeCount];
+
+				if (first > holeStart && !addHole(holeStart, first - 1))
+					return false;
+				if (last < holeEnd && moreFragments && !addHole(last + 1, holeEnd))
+					return false;
+			}
+			return true;
+		}
+
+		private boolean addHole(int first, int last) {
+
+			if (holeCount == MAX_HOLES)
+				return false;
+			holeFirst[holeCount] = first;
+			holeLast[holeCount] = last;
+			holeCount++;
+			return true;
+		}
+
+	}
+
+	Datagram[] datagrams;
+	int reassembledCount;
+	int droppedCount;
+
+	// Records are read at readOffset and written back at writeOffset, which
+	// never passes it
+	int readOffset;
+	int writeOffset;
+
+	Ipv4Defragmenter() {
+
+		this.datagrams = new Datagram[MAX_DATAGRAMS];
+		for (int slot = 0; slot < MAX_DATAGRAMS; ++slot)
+			this.datagrams[slot] = new Datagram();
+		this.reassembledCount = 0;
+		this.droppedCount = 0;
+		this.readOffset = 0;
+		this.writeOffset = 0;
+	}
+
+	// Rewrites the capture and returns its new size
+	int defragment(byte[] captureData, int captureSize) {
+
+		start();
+		while (readOffset < captureSize)
+			rewrite(captureData, captureSize);
+		return finish(captureSize);
+	}
+
+	// The incremental form, for a capture that is still being read: start(),
+	// rewrite() for each record as soon as its bytes are in, finish()
+	void start() {
+		readOffset = NetworkForensics.PCAP_HEADER_LENGTH + NetworkForensics.PACKET_HEADER_LENGTH;
+		writeOffset = readOffset;
+	}
+
+	// Takes in the record at readOffset, which is complete unless it is the
+	// last one of the capture. Returns the frame offset it was written back
+	// at, or -1 when it was a fragment that did not complete a datagram.
+	int rewrite(byte[] captureData, int captureSize) {
+
+		// Records are stepped by the captured length, a snap length may have
+		// cut the frame short of its wire length
+		int i = readOffset;
+		int recordLength = readLittleEndianInt(captureData, i - 8);
+		readOffset = i + recordLength + NetworkForensics.PACKET_HEADER_LENGTH;
+
+		int out = writeOffset;
+		if (!isFragment(captureData, i, recordLength)) {
+			if (out != i)
+				System.arraycopy(captureData, i - NetworkForensics.PACKET_HEADER_LENGTH, captureData,
+						out - NetworkForensics.PACKET_HEADER_LENGTH,
+						Math.min(recordLength, captureSize - i) + NetworkForensics.PACKET_HEADER_LENGTH);
+			writeOffset += recordLength + NetworkForensics.PACKET_HEADER_LENGTH;
+			return out;
+		}
+
+		Datagram datagram = addFragment(captureData, i, recordLength);
+		if (datagram == null)
+			return -1;
+
+		writeOffset += write(datagram, captureData, i, out) + NetworkForensics.PACKET_HEADER_LENGTH;
+		datagram.used = false;
+		reassembledCount++;
+		return out;
+	}
+
+	// End of the rewritten records so far, with the capture read up to
+	// captureSize
+	int rewrittenSize(int captureSize) {
+		return Math.min(writeOffset - NetworkForensics.PACKET_HEADER_LENGTH, captureSize);
+	}
+
+	// Drops the datagrams that never completed and returns the new size
+	int finish(int captureSize) {
+
+		for (Datagram datagram : datagrams) {
+			if (datagram.used) {
+				datagram.used = false;
+				droppedCount++;
+			}
+		}
+
+		return rewrittenSize(captureSize);
+	}
+
+	static boolean isFragment(byte[] captureData, int i, int recordLength) {
+
+		if (recordLength < NetworkForensics.ETHERNET_HEADER_LENGTH + 20)
+			return false;
+		if (Byte.toUnsignedInt(captureData[i + 12]) != 0x08 || captureData[i + 13] != 0x00)
+			return false;
+
+		int ipStart = i + NetworkForensics.ETHERNET_HEADER_LENGTH;
+		// MF flag or a non-zero fragment offset
+		return (captureData[ipStart + 6] & 0x3f) != 0 || captureData[ipStart + 7] != 0;
+	}
+
+	// Takes in a fragment, returns its datagram once it is complete
+	private Datagram addFragment(byte[] captureData, int i, int recordLength) {
+
+		int ipStart = i + NetworkForensics.ETHERNET_HEADER_LENGTH;
+		int ipHeaderLength = (captureData[ipStart] & 15) * 4;
+		int ipTotalLength = (Byte.toUnsignedInt(captureData[ipStart + 2]) << 8)
+				| Byte.toUnsignedInt(captureData[ipStart + 3]);
+		int fragmentLength = ipTotalLength - ipHeaderLength;
+		int first = (((captureData[ipStart + 6] & 0x1f) << 8) | Byte.toUnsignedInt(captureData[ipStart + 7])) * 8;
+		int last = first + fragmentLength - 1;
+		boolean moreFragments = (captureData[ipStart + 6] & 0x20) != 0;
+
+		// Malformed fragments and fragments the snap length cut short are not
+		// worth a slot
+		if (ipHeaderLength < 20 || fragmentLength <= 0
+				|| NetworkForensics.ETHERNET_HEADER_LENGTH + ipTotalLength > recordLength
+				|| last >= MAX_PAYLOAD_LENGTH) {
+			droppedCount++;
+			return null;
+		}
+
+		long captureTime = readLittleEndianInt(captureData, i - 16) & 0xffffffffL;
+		int sourceIp = readBigEndianInt(captureData, ipStart + 12);
+		int destinationIp = readBigEndianInt(captureData, ipStart + 16);
+		int identification = (Byte.toUnsignedInt(captureData[ipStart + 4]) << 8)
+				| Byte.toUnsignedInt(captureData[ipStart + 5]);
+		int protocol = Byte.toUnsignedInt(captureData[ipStart + 9]);
+
+		Datagram datagram = find(sourceIp, destinationIp, identification, protocol, captureTime);
+
+		if (!datagram.fill(first, last, moreFragments)) {
+			datagram.used = false;
+			droppedCount++;
+			return null;
+		}
+
+		System.arraycopy(captureData, ipStart + ipHeaderLength, datagram.payload, first, fragmentLength);
+		if (first == 0) {
+			datagram.headerLength = NetworkForensics.ETHERNET_HEADER_LENGTH + ipHeaderLength;
+			System.arraycopy(captureData, i, datagram.header, 0, datagram.headerLength);
+		}
+		if (!moreFragments)
+			datagram.payloadLength = last + 1;
+
+		if (datagram.holeCount == 0 && datagram.headerLength != 0 && datagram.payloadLength != 0)
+			return datagram;
+		return null;
+	}
+
+	// The slot of the datagram, a free one for a new datagram. Expired
+	// datagrams are dropped on the way, and when every slot is busy the
+	// oldest one is given up.
+	private Datagram find(int sourceIp, int destinationIp, int identification, int protocol, long captureTime) {
+
+		Datagram match = null;
+		Datagram free = null;
+		Datagram oldest = null;
+
+		for (Datagram datagram : datagrams) {
+
+			if (datagram.used && captureTime - datagram.firstSeen > TIMEOUT) {
+				datagram.used = false;
+				droppedCount++;
+			}
+
+			if (!datagram.used) {
+				if (free == null)
+					free = datagram;
+				continue;
+			}
+
+			if (datagram.sourceIp == sourceIp && datagram.destinationIp == destinationIp
+					&& datagram.identification == identification && datagram.protocol == protocol)
+				match = datagram;
+			if (oldest == null || datagram.firstSeen < oldest.firstSeen)
+				oldest = datagram;
+		}
+
+		if (match != null)
+			return match;
+
+		if (free == null) {
+			free = oldest;
+			droppedCount++;
+		}
+		free.start(sourceIp, destinationIp, identification, protocol, captureTime);
+		return free;
+	}
+
+	// Writes the datagram as a record at out, with the timestamp of the
+	// fragment at i, and returns the record length
+	private static int write(Datagram datagram, byte[] captureData, int i, int out) {
+
+		int recordLength = datagram.headerLength + datagram.payloadLength;
+		int recordStart = out - NetworkForensics.PACKET_HEADER_LENGTH;
+
+		// Timestamp of the completing fragment, then both lengths
+		System.arraycopy(captureData, i - NetworkForensics.PACKET_HEADER_LENGTH, captureData, recordStart, 8);
+		writeLittleEndianInt(captureData, recordStart + 8, recordLength);
+		writeLittleEndianInt(captureData, recordStart + 12, recordLength);
+
+		System.arraycopy(datagram.header, 0, captureData, out, datagram.headerLength);
+		System.arraycopy(datagram.payload, 0, captureData, out + datagram.headerLength, datagram.payloadLength);
+
+		int ipStart = out + NetworkForensics.ETHERNET_HEADER_LENGTH;
+		int ipHeaderLength = datagram.headerLength - NetworkForensics.ETHERNET_HEADER_LENGTH;
+		int ipTotalLength = ipHeaderLength + datagram.payloadLength;
+		captureData[ipStart + 2] = (byte) (ipTotalLength >>> 8);
+		captureData[ipStart + 3] = (byte) ipTotalLength;
+		// Keep DF, clear MF and the offset
+		captureData[ipStart + 6] &= 0x40;
+		captureData[ipStart + 7] = 0;
+
+		captureData[ipStart + 10] = 0;
+		captureData[ipStart + 11] = 0;
+		int checksum = 0;
+		for (int k = 0; k < ipHeaderLength; k += 2)
+			checksum += (Byte.toUnsignedInt(captureData[ipStart + k]) << 8)
+					| Byte.toUnsignedInt(captureData[ipStart + k + 1]);
+		while ((checksum >>> 16) != 0)
+			checksum = (checksum & 0xffff) + (checksum >>> 16);
+		checksum = ~checksum & 0xffff;
+		captureData[ipStart + 10] = (byte) (checksum >>> 8);
+		captureData[ipStart + 11] = (byte) checksum;
+
+		return recordLength;
+	}
+
+	static int readLittleEndianInt(byte[] data, int start) {
+		return Byte.toUnsignedInt(data[start]) | (Byte.toUnsignedInt(data[start + 1]) << 8)
+				| (Byte.toUnsignedInt(data[start + 2]) << 16) | (Byte.toUnsignedInt(data[start + 3]) << 24);
+	}
+
+	static int readBigEndianInt(byte[] data, int start) {
+		return (Byte.toUnsignedInt(data[start]) << 24) | (Byte.toUnsignedInt(data[start + 1]) << 16)
+				| (Byte.toUnsignedInt(data[start + 2]) << 8) | Byte.toUnsignedInt(data[start + 3]);
+	}
+
+	static void writeLittleEndianInt(byte[] data, int start, int value) {
+		data[start] = (byte) value;
+		data[start + 1] = (byte) (value >>> 8);
+		data[start + 2] = (byte) (value >>> 16);
+		data[start + 3] = (byte) (value >>> 24);
+	}
+
+}
@@ -0,0 +1,75 @@
+package forensics;
+
+// Latencies in microseconds, counted in log buckets of fixed memory in the
+// layout of an HDR histogram. Values below 2 * SUB_BUCKETS have a bucket each,
+// above that every power of two is split into SUB_BUCKETS linear buckets, so a
+// percentile is off by less than 1 / SUB_BUCKETS of its value. Values past
+// MAX_VALUE, some 12 days, are counted as MAX_VALUE.
+class LatencyHistogram {
+
+	static final int SUB_BUCKET_BITS = 7;
+	static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	static final long MAX_VALUE = (1L << 40) - 1;
+	static final int BUCKETS = index(MAX_VALUE) + 1;
+
+	long[] counts;
+	long totalCount;
+	long maxValue;
+
+	LatencyHistogram() {
+		this.counts = new long[BUCKETS];
+		this.totalCount = 0L;
+		this.maxValue = 0L;
+	}
+
+	static int index(long value) {
+
+		if (value < 2 * SUB_BUCKETS)
+			return (int) value;
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+	}
+
+	// Largest value that falls in the bucket
+	static long highestValue(int index) {
+
+		if (index < 2 * SUB_BUCKETS)
+			return index;
+		int shift = index / SUB_BUCKETS - 1;
+		long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+		return ((subBucket + 1) << shift) - 1;
+	}
+
+	// Negative latencies come from clocks of different capture points
+	void add(long value) {
+
+		value = Math.min(Math.max(value, 0L), MAX_VALUE);
+		counts[index(value)]++;
+		totalCount++;
+		maxValue = Math.max(maxValue, value);
+	}
+
+	// Smallest recorded value that the given percentage of the values do not
+	// exceed, to within the bucket, 0 when empty
+	long percentile(double percent) {
+
+		if (totalCount == 0)
+			return 0L;
+
+		long rank = Math.max(1L, (long) Math.ceil(percent / 100.0 * totalCount));
+		long seen = 0L;
+		for (int index = 0; index < BUCKETS; ++index) {
+			seen += counts[index];
+			if (seen >= rank)
+				return Math.min(highestValue(index), maxValue);
+		}
+		return maxValue;
+	}
+
+	// p50 p90 p99 max
+	@Override
+	public String toString() {
+		return percentile(50.0) + " " + percentile(90.0) + " " + percentile(99.0) + " " + maxValue;
+	}
+
+}
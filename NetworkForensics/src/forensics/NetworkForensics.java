@@ -1,17 +1,32 @@
 package forensics;
 
-import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class NetworkForensics {
 
@@ -19,6 +34,8 @@ public class NetworkForensics {
 	public static final int PCAP_HEADER_LENGTH = 24;
 	public static final int PACKET_HEADER_LENGTH = 16;
 	public static final int ETHERNET_HEADER_LENGTH = 14;
+	// Fewer records than this are not worth a chunk of their own
+	static final int MIN_CHUNK_RECORDS = 4096;
 	// public static final int MAXIMUM_SEGMENT_SIZE = 65535;
 
 	static class IpAddress {
@@ -130,12 +147,17 @@ public class NetworkForensics {
 		List<Byte> data;
 		long captureTime;
 		long microOffset;
+		// Location of the TCP payload in the capture buffer
+		int payloadStart;
+		int payloadLength;
 
 		Packet() {
 			this.sequenceNumber = 0L;
 			this.acknowledgementNumber = 0L;
 			this.captureTime = 0L;
 			this.microOffset = 0L;
+			this.payloadStart = 0;
+			this.payloadLength = 0;
 			this.data = new ArrayList<Byte>();
 		}
 
@@ -157,6 +179,11 @@ public class NetworkForensics {
 
 		List<Packet> upstreamPackets;
 		List<Packet> downstreamPackets;
+		// Capture time of the first packet, in microseconds
+		long startTime;
+		// With --resolve, the server name when the connection started, null
+		// when the capture has no answer for it
+		String serverName;
 
 		TcpConnection() {
 			this.source = new IpAddress();
@@ -172,6 +199,8 @@ public class NetworkForensics {
 
 			this.upstreamPackets = new ArrayList<Packet>();
 			this.downstreamPackets = new ArrayList<Packet>();
+			this.startTime = 0L;
+			this.serverName = null;
 
 		}
 
@@ -220,14 +249,31 @@ public class NetworkForensics {
 		long acknowledgementNumber;
 		long contentLength;
 
+		String method;
 		String requestedUrl;
 		String hostname;
 		int responseCode;
 
-		List<Byte> responseData;
+		String userAgent;
+		String contentType;
+
 		String imageType;
+		// Where the response body starts in the reassembled downlink
+		ReassembledStream responseStream;
+		long bodyPosition;
+		boolean chunkedEncoding;
+		String contentEncoding;
+		// Body length after Content-Encoding decompression
+		long decodedBodyLength;
+		// Capture time of the first response packet, in microseconds
+		long responseTimestamp;
+		// and of the packet with the last byte of the response
+		long lastByteTimestamp;
+		// With --resolve, the server name when the connection started
+		String serverName;
 
 		HttpConnection() {
+			this.method = new String();
 			this.receptionTime = new String();
 			this.requestedUrl = new String();
 			this.responseBodyLength = 0L;
@@ -237,8 +283,17 @@ public class NetworkForensics {
 			this.responseCode = 0;
 			this.contentLength = 0;
 
-			this.responseData = new ArrayList<Byte>();
+			this.userAgent = new String();
+			this.contentType = new String();
+
 			this.imageType = new String();
+			this.bodyPosition = 0L;
+			this.chunkedEncoding = false;
+			this.contentEncoding = new String();
+			this.decodedBodyLength = 0L;
+			this.responseTimestamp = 0L;
+			this.lastByteTimestamp = 0L;
+			this.serverName = null;
 		}
 
 		@Override
@@ -264,6 +319,11 @@ public class NetworkForensics {
 			return false;
 		}
 
+		// Reception time of the request in microseconds
+		long timestamp() {
+			return captureTime * 1000000L + microOffset;
+		}
+
 		@Override
 		public int compareTo(Object obj) {
 
@@ -274,11 +334,7 @@ public class NetworkForensics {
 
 			HttpConnection o = (HttpConnection) obj;
 
-			if (this.captureTime == o.captureTime) {
-				return (int) (this.microOffset - o.microOffset);
-			} else {
-				return (int) (this.captureTime - o.captureTime);
-			}
+			return Long.compare(this.timestamp(), o.timestamp());
 
 			/*
 			 * if (this.receptionTime.substring(0, this.receptionTime.indexOf(
@@ -294,31 +350,52 @@ public class NetworkForensics {
 
 			@Override
 			public int compare(HttpConnection o1, HttpConnection o2) {
-				if (o1.captureTime == o2.captureTime) {
-					return (int) (o1.microOffset - o2.microOffset);
-				} else {
-					return (int) (o1.captureTime - o2.captureTime);
-				}
+				return Long.compare(o1.timestamp(), o2.timestamp());
 			}
 
 		};
 
 	}
 
-	static int input(byte[] captureData) {
+	static class TrafficBucket {
+
+		long start;
+		long packetCount;
+		long byteCount;
+		long ipPacketCount;
+		long tcpPacketCount;
+		long udpPacketCount;
+		long newConnectionCount;
+		long httpTransactionCount;
+
+		void reset(long start) {
+			this.start = start;
+			this.packetCount = 0L;
+			this.byteCount = 0L;
+			this.ipPacketCount = 0L;
+			this.tcpPacketCount = 0L;
+			this.udpPacketCount = 0L;
+			this.newConnectionCount = 0L;
+			this.httpTransactionCount = 0L;
+		}
 
-		int captureSize = 0;
-		InputStream d = new DataInputStream(System.in);
+		@Override
+		public String toString() {
+			return start + " " + packetCount + " " + byteCount + " " + ipPacketCount + " " + tcpPacketCount + " "
+					+ udpPacketCount + " " + newConnectionCount + " " + httpTransactionCount;
+		}
 
-		try {
-			int v = d.read();
-			while (v != -1) {
+	}
 
-				captureData[captureSize++] = (byte) v;
+	static int input(InputStream in, byte[] captureData) {
 
-				v = d.read();
+		int captureSize = 0;
 
-			}
+		try {
+			int n;
+			while (captureSize < captureData.length
+					&& (n = in.read(captureData, captureSize, captureData.length - captureSize)) != -1)
+				captureSize += n;
 		} catch (IOException e) {
 			System.out.println("Input error in parsing PCAP file");
 		}
@@ -327,244 +404,265 @@ public class NetworkForensics {
 
 	}
 
-	static void task1(byte[] captureData, int captureSize) {
-
-		int totalPacketCount = 0;
-		int ipPacketCount = 0;
-		int tcpPacketCount = 0;
-		int udpPacketCount = 0;
-		int tcpConnectionsCount = 0;
-		Map<TcpConnection, Integer> TcpConnectionsTable = new HashMap<TcpConnection, Integer>();
-
-		// The Pcap file header is 24 bytes.
-		// Packet headers are 16 bytes.
-		// To count total number of packets need to count the number of packet
-		// headers.
-		// Ethernet header is 14 bytes
-		// Upper layer protocol of ipv4 is in 9th byte of ethernet header
-
-		// i in the loop points to the start of packet payload.
-		for (int i = PCAP_HEADER_LENGTH + PACKET_HEADER_LENGTH; i < captureSize;) {
-
-			// Converting 4 bytes of data into a single integer
-			int totalPacketLength = Byte.toUnsignedInt(captureData[i - 1]);
-			totalPacketLength <<= 8;
-			totalPacketLength |= Byte.toUnsignedInt(captureData[i - 2]);
-			totalPacketLength <<= 8;
-			totalPacketLength |= Byte.toUnsignedInt(captureData[i - 3]);
-			totalPacketLength <<= 8;
-			totalPacketLength |= Byte.toUnsignedInt(captureData[i - 4]);
-
-			// i+12 is specifies the length (if<1500) or type ethernet frame
-			// header
-			int frameType = Byte.toUnsignedInt(captureData[i + 12]);
-			frameType <<= 8;
-			frameType |= Byte.toUnsignedInt(captureData[i + 13]);
-
-			if (frameType == 2048) { // ipv4 packet
-				ipPacketCount++;
-
-				// i+ETHERNET_HEADER_LENGTH is the start of IP Packet
-				int ipHeaderLength = Byte.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH]);
-				// But only last 4 bits is the length
-				ipHeaderLength &= 15;// Removes first 4 bits
-				ipHeaderLength *= 4; // The length is specified as 32bit words
-
-				if (Byte.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH + 9]) == 6) { // TCP
-					// packet
-					tcpPacketCount++;
-
-					TcpConnection tcpConnection = new TcpConnection();
-
-					tcpConnection.source.firstByte = captureData[i + ETHERNET_HEADER_LENGTH + 12];
-					tcpConnection.source.secondByte = captureData[i + ETHERNET_HEADER_LENGTH + 13];
-					tcpConnection.source.thirdByte = captureData[i + ETHERNET_HEADER_LENGTH + 14];
-					tcpConnection.source.fourthByte = captureData[i + ETHERNET_HEADER_LENGTH + 15];
-
-					tcpConnection.destination.firstByte = captureData[i + ETHERNET_HEADER_LENGTH + 16];
-					tcpConnection.destination.secondByte = captureData[i + ETHERNET_HEADER_LENGTH + 17];
-					tcpConnection.destination.thirdByte = captureData[i + ETHERNET_HEADER_LENGTH + 18];
-					tcpConnection.destination.fourthByte = captureData[i + ETHERNET_HEADER_LENGTH + 19];
-
-					int sourcePort = Byte.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH + ipHeaderLength]);
-					sourcePort <<= 8;
-					sourcePort |= Byte.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH + ipHeaderLength + 1]);
-
-					int destinationPort = Byte
-							.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH + ipHeaderLength + 2]);
-					destinationPort <<= 8;
-					destinationPort |= Byte.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH + ipHeaderLength + 3]);
-
-					tcpConnection.sport = sourcePort;
-					tcpConnection.dport = destinationPort;
-
-					TcpConnection reverseTcpConnection = new TcpConnection();
-					reverseTcpConnection.source = tcpConnection.destination;
-					reverseTcpConnection.destination = tcpConnection.source;
-					reverseTcpConnection.sport = tcpConnection.dport;
-					reverseTcpConnection.dport = tcpConnection.sport;
-
-					if (TcpConnectionsTable.containsKey(tcpConnection)
-							|| TcpConnectionsTable.containsKey(reverseTcpConnection)) {
-						// If tcp connection exists its not unique
-					} else {
-						TcpConnectionsTable.put(tcpConnection, 1);
-
-						tcpConnectionsCount++;
-					}
-				} else if (Byte.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH + 9]) == 17) { // UDP
-					// packet
-					udpPacketCount++;
+	// task1 counters over a run of records
+	static class PacketCounts {
+
+		int totalPacketCount;
+		int ipPacketCount;
+		int tcpPacketCount;
+		int udpPacketCount;
+		// Each connection in the direction it was first seen in
+		Map<TcpConnection, Integer> TcpConnectionsTable;
+		// Approximate mode counts connections in a fixed size sketch instead
+		HyperLogLog connectionSketch;
+
+		PacketCounts(Options options) {
+			this.totalPacketCount = 0;
+			this.ipPacketCount = 0;
+			this.tcpPacketCount = 0;
+			this.udpPacketCount = 0;
+			this.TcpConnectionsTable = new HashMap<TcpConnection, Integer>();
+			this.connectionSketch = null;
+			if (options.approximatePrecision != 0)
+				this.connectionSketch = new HyperLogLog(options.approximatePrecision);
+		}
+
+		void add(PacketView view) {
+
+			totalPacketCount++;
+
+			if (view.frameType() != PacketView.ETHERTYPE_IPV4)
+				return;
+			ipPacketCount++;
+
+			if (view.isTcp()) {
+				tcpPacketCount++;
+
+				if (connectionSketch != null) {
+					connectionSketch.add(connectionHash(view));
+					return;
 				}
+
+				TcpConnection tcpConnection = new TcpConnection();
+				tcpConnection.source = view.sourceIpAddress();
+				tcpConnection.destination = view.destinationIpAddress();
+				tcpConnection.sport = view.sourcePort();
+				tcpConnection.dport = view.destinationPort();
+				addConnection(tcpConnection);
+
+			} else if (view.isUdp()) {
+				udpPacketCount++;
 			}
-			totalPacketCount++;
-			i += totalPacketLength + PACKET_HEADER_LENGTH;
 		}
 
-		System.out.print(totalPacketCount + " " + ipPacketCount + " " + tcpPacketCount + " " + udpPacketCount + " "
-				+ tcpConnectionsCount + "\n");
+		private void addConnection(TcpConnection tcpConnection) {
+
+			TcpConnection reverseTcpConnection = new TcpConnection();
+			reverseTcpConnection.source = tcpConnection.destination;
+			reverseTcpConnection.destination = tcpConnection.source;
+			reverseTcpConnection.sport = tcpConnection.dport;
+			reverseTcpConnection.dport = tcpConnection.sport;
+
+			// If tcp connection exists its not unique
+			if (!TcpConnectionsTable.containsKey(tcpConnection)
+					&& !TcpConnectionsTable.containsKey(reverseTcpConnection))
+				TcpConnectionsTable.put(tcpConnection, 1);
+		}
+
+		// Adds the counts of the records that follow these ones
+		void merge(PacketCounts other) {
+
+			totalPacketCount += other.totalPacketCount;
+			ipPacketCount += other.ipPacketCount;
+			tcpPacketCount += other.tcpPacketCount;
+			udpPacketCount += other.udpPacketCount;
+
+			if (connectionSketch != null) {
+				connectionSketch.merge(other.connectionSketch);
+				return;
+			}
+			for (TcpConnection tcpConnection : other.TcpConnectionsTable.keySet())
+				addConnection(tcpConnection);
+		}
 
 	}
 
-	static void task2(byte[] captureData, int captureSize) {
+	static void task1(PacketView view, Options options) {
 
-		Map<ConnectionTuple, TcpConnection> TcpConnectionsTable = new HashMap<ConnectionTuple, TcpConnection>();
-		Map<ConnectionTuple, TcpConnection> sortedTcpConnectionsTable = new TreeMap<ConnectionTuple, TcpConnection>();
+		PacketCounts counts;
+		if (options.threads > 1) {
+			counts = countInParallel(view, options);
+		} else {
+			counts = new PacketCounts(options);
+			while (view.next())
+				counts.add(view);
+		}
 
-		// The Pcap file header is 24 bytes.
-		// Packet headers are 16 bytes.
-		// To count total number of packets need to count the number of packet
-		// headers.
-		// Ethernet header is 14 bytes
-		// Upper layer protocol of ipv4 is in 9th byte of ethernet header
-		// i in the loop points to the start of packet payload.
-		for (int i = PCAP_HEADER_LENGTH + PACKET_HEADER_LENGTH; i < captureSize;) {
-			// Converting 4 bytes of data into a single integer
-			int totalPacketLength = Byte.toUnsignedInt(captureData[i - 1]);
-			totalPacketLength <<= 8;
-			totalPacketLength |= Byte.toUnsignedInt(captureData[i - 2]);
-			totalPacketLength <<= 8;
-			totalPacketLength |= Byte.toUnsignedInt(captureData[i - 3]);
-			totalPacketLength <<= 8;
-			totalPacketLength |= Byte.toUnsignedInt(captureData[i - 4]);
-
-			// i+12 is specifies the length (if<1500) or type ethernet frame
-			// header
-			int frameType = Byte.toUnsignedInt(captureData[i + 12]);
-			frameType <<= 8;
-			frameType |= Byte.toUnsignedInt(captureData[i + 13]);
-
-			if (frameType == 2048) { // ipv4 packet
-
-				// i+ETHERNET_HEADER_LENGTH is the start of IP Packet
-				int ipHeaderLength = Byte.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH]);
-				// But only last 4 bits is the length
-				ipHeaderLength &= 15;// Removes first 4 bits
-
-				ipHeaderLength *= 4; // The length is specified as 32bit words
-
-				int ipTotalLength = Byte.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH + 2]);
-				ipTotalLength <<= 8;
-				ipTotalLength |= Byte.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH + 3]);
-
-				if (Byte.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH + 9]) == 6) { // TCP
-					// packet
-
-					TcpConnection tcpConnection;
-					ConnectionTuple connection = new ConnectionTuple();
-					ConnectionTuple revConnection = new ConnectionTuple();
-
-					// first 4 bytes of 12th byte of TCP header is data offset
-					int tcpHeaderLength = Byte
-							.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH + ipHeaderLength + 12]);
-					tcpHeaderLength >>= 4;
-					tcpHeaderLength *= 4; // 32bit words to bytes
-
-					int tcpPayloadLength = ipTotalLength - ipHeaderLength - tcpHeaderLength;
-
-					IpAddress temp = new IpAddress();
-					temp.firstByte = captureData[i + ETHERNET_HEADER_LENGTH + 12];
-					temp.secondByte = captureData[i + ETHERNET_HEADER_LENGTH + 13];
-					temp.thirdByte = captureData[i + ETHERNET_HEADER_LENGTH + 14];
-					temp.fourthByte = captureData[i + ETHERNET_HEADER_LENGTH + 15];
-					connection.sourceIp = temp;
-
-					temp = new IpAddress();
-					temp.firstByte = captureData[i + ETHERNET_HEADER_LENGTH + 16];
-					temp.secondByte = captureData[i + ETHERNET_HEADER_LENGTH + 17];
-					temp.thirdByte = captureData[i + ETHERNET_HEADER_LENGTH + 18];
-					temp.fourthByte = captureData[i + ETHERNET_HEADER_LENGTH + 19];
-					connection.destinationIp = temp;
-
-					connection.sourcePort = Byte
-							.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH + ipHeaderLength]);
-					connection.sourcePort <<= 8;
-					connection.sourcePort |= Byte
-							.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH + ipHeaderLength + 1]);
-
-					connection.destinationPort = Byte
-							.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH + ipHeaderLength + 2]);
-					connection.destinationPort <<= 8;
-					connection.destinationPort |= Byte
-							.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH + ipHeaderLength + 3]);
-
-					revConnection.destinationIp = connection.sourceIp;
-					revConnection.sourceIp = connection.destinationIp;
-					revConnection.sourcePort = connection.destinationPort;
-					revConnection.destinationPort = connection.sourcePort;
-
-					if (TcpConnectionsTable.containsKey(connection)) {
-
-						tcpConnection = TcpConnectionsTable.get(connection);
-
-					} else if (TcpConnectionsTable.containsKey(revConnection)) {
-
-						tcpConnection = TcpConnectionsTable.get(revConnection);
-
-					} else {
-
-						tcpConnection = new TcpConnection();
-						tcpConnection.source = connection.sourceIp;
-						tcpConnection.destination = connection.destinationIp;
-						tcpConnection.sport = connection.sourcePort;
-						tcpConnection.dport = connection.destinationPort;
+		if (counts.connectionSketch != null) {
+			// The relative standard error of the estimate is the sixth field
+			System.out.print(counts.totalPacketCount + " " + counts.ipPacketCount + " " + counts.tcpPacketCount + " "
+					+ counts.udpPacketCount + " " + counts.connectionSketch.estimate() + " "
+					+ String.format("%.4f", counts.connectionSketch.relativeError()) + "\n");
+			return;
+		}
 
-					}
+		System.out.print(counts.totalPacketCount + " " + counts.ipPacketCount + " " + counts.tcpPacketCount + " "
+				+ counts.udpPacketCount + " " + counts.TcpConnectionsTable.size() + "\n");
 
-					// Only Http Connections required for this task
-					if ((connection.sourcePort == 80 || connection.destinationPort == 80)) {
+	}
+
+	// Frame offsets of the records, from the record headers alone
+	static int[] recordOffsets(byte[] captureData, int captureSize) {
 
-						int tcpPayloadStart = i + ETHERNET_HEADER_LENGTH + ipHeaderLength + tcpHeaderLength;
+		int[] offsets = new int[1024];
+		int count = 0;
 
-						if (connection.destinationPort == 80) {
+		for (int i = PCAP_HEADER_LENGTH + PACKET_HEADER_LENGTH; i < captureSize;
+				i += Ipv4Defragmenter.readLittleEndianInt(captureData, i - 8) + PACKET_HEADER_LENGTH) {
+			if (count == offsets.length)
+				offsets = Arrays.copyOf(offsets, count * 2);
+			offsets[count++] = i;
+		}
 
-							for (int j = 0; j < tcpPayloadLength && tcpPayloadLength != 0; ++j) {
+		return Arrays.copyOf(offsets, count);
+	}
 
-								tcpConnection.upstreamData.add(captureData[tcpPayloadStart + j]);
+	// Splits the records into chunks that are counted on a pool of threads,
+	// and merges the counts in capture order
+	static PacketCounts countInParallel(PacketView view, Options options) {
+
+		view.readAll();
+		final byte[] captureData = view.data;
+		final int captureSize = view.captureSize;
+		final int[] offsets = recordOffsets(captureData, captureSize);
+
+		// A few chunks per thread evens out chunks that decode slower
+		int chunkCount = Math.max(1, Math.min(options.threads * 4, offsets.length / MIN_CHUNK_RECORDS));
+		int chunkLength = (offsets.length + chunkCount - 1) / Math.max(chunkCount, 1);
+
+		final AtomicInteger threadCount = new AtomicInteger();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(options.threads, options.threads, 0L,
+				TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), runnable -> {
+					Thread thread = new Thread(runnable, "decoder-" + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+
+		List<Future<PacketCounts>> chunks = new ArrayList<Future<PacketCounts>>();
+		for (int first = 0; first < offsets.length; first += chunkLength) {
+			final int from = first;
+			final int to = Math.min(first + chunkLength, offsets.length);
+			chunks.add(executor.submit(() -> {
+				PacketCounts counts = new PacketCounts(options);
+				PacketView chunkView = new PacketView(captureData, captureSize);
+				chunkView.seek(offsets[from]);
+				for (int k = from; k < to; ++k) {
+					chunkView.next();
+					counts.add(chunkView);
+				}
+				return counts;
+			}));
+		}
+		executor.shutdown();
 
-							}
+		PacketCounts counts = new PacketCounts(options);
+		try {
+			for (Future<PacketCounts> chunk : chunks)
+				counts.merge(chunk.get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+		return counts;
+	}
 
-							tcpConnection.upDataLength += tcpPayloadLength;
+	static long connectionHash(PacketView view) {
 
-							TcpConnectionsTable.put(connection, tcpConnection);
+		long source = (view.sourceIp() & 0xffffffffL) << 16 | view.sourcePort();
+		long destination = (view.destinationIp() & 0xffffffffL) << 16 | view.destinationPort();
 
-						} else if (connection.sourcePort == 80) {
+		long low = Math.min(source, destination);
+		long high = Math.max(source, destination);
+		return HyperLogLog.mix(HyperLogLog.mix(low) ^ high);
+	}
 
-							for (int k = 0; k < tcpPayloadLength && tcpPayloadLength != 0; ++k) {
+	static void task2(PacketView view, Options options) {
 
-								tcpConnection.downstreamData.add(captureData[tcpPayloadStart + k]);
-							}
+		byte[] captureData = view.data;
+		Map<ConnectionTuple, TcpConnection> TcpConnectionsTable = new HashMap<ConnectionTuple, TcpConnection>();
+		Map<ConnectionTuple, TcpConnection> sortedTcpConnectionsTable = new TreeMap<ConnectionTuple, TcpConnection>();
+		DnsCache dnsCache = options.resolveNames ? new DnsCache() : null;
+
+		while (view.next()) {
+
+			// The answers are taken in the same pass, so that a connection is
+			// resolved with the bindings of the time it starts
+			if (dnsCache != null)
+				dnsCache.add(view);
+
+			// Only Http Connections required for this task
+			if (!view.isTcp() || (view.sourcePort() != 80 && view.destinationPort() != 80))
+				continue;
+
+			ConnectionTuple connection = clientServerTuple(view);
+
+			TcpConnection tcpConnection = TcpConnectionsTable.get(connection);
+			if (tcpConnection == null) {
+				tcpConnection = new TcpConnection();
+				tcpConnection.source = connection.sourceIp;
+				tcpConnection.destination = connection.destinationIp;
+				tcpConnection.sport = connection.sourcePort;
+				tcpConnection.dport = connection.destinationPort;
+				tcpConnection.startTime = view.timestamp();
+				if (dnsCache != null)
+					tcpConnection.serverName = dnsCache.lookup(connection.destinationIp, tcpConnection.startTime);
+				TcpConnectionsTable.put(connection, tcpConnection);
+			}
 
-							tcpConnection.downDataLength += tcpPayloadLength;
+			int tcpPayloadStart = view.payloadStart();
+			int tcpPayloadLength = view.payloadLength();
+
+			// Files are written from the packets in sequence order, the bytes
+			// are not copied
+			if (options.streamDirectory != null) {
+				Packet packet = new Packet();
+				packet.sequenceNumber = view.sequenceNumber();
+				packet.acknowledgementNumber = view.acknowledgementNumber();
+				packet.captureTime = view.seconds();
+				packet.microOffset = view.micros();
+				packet.payloadStart = tcpPayloadStart;
+				packet.payloadLength = tcpPayloadLength;
+
+				if (view.destinationPort() == 80) {
+					tcpConnection.upstreamPackets.add(packet);
+					tcpConnection.upDataLength += tcpPayloadLength;
+				} else {
+					tcpConnection.downstreamPackets.add(packet);
+					tcpConnection.downDataLength += tcpPayloadLength;
+				}
+				continue;
+			}
 
-							TcpConnectionsTable.put(revConnection, tcpConnection);
-						}
+			if (view.destinationPort() == 80) {
 
-					}
+				for (int j = 0; j < tcpPayloadLength; ++j) {
 
+					tcpConnection.upstreamData.add(captureData[tcpPayloadStart + j]);
+
+				}
+
+				tcpConnection.upDataLength += tcpPayloadLength;
+
+			} else {
+
+				for (int k = 0; k < tcpPayloadLength; ++k) {
+
+					tcpConnection.downstreamData.add(captureData[tcpPayloadStart + k]);
 				}
+
+				tcpConnection.downDataLength += tcpPayloadLength;
 			}
-			i += totalPacketLength + PACKET_HEADER_LENGTH;
 		}
 		for (Entry<ConnectionTuple, TcpConnection> entry : TcpConnectionsTable.entrySet()) {
 			ConnectionTuple connection = entry.getKey();
@@ -573,9 +671,23 @@ public class NetworkForensics {
 			sortedTcpConnectionsTable.put(connection, entry.getValue());
 		}
 
+		// With --resolve the server name at the start of the connection is
+		// added, n/a when the capture has no answer for it
 		for (Entry<ConnectionTuple, TcpConnection> entry : sortedTcpConnectionsTable.entrySet()) {
 
-			System.out.print(entry.getKey().toString().substring(0, entry.getKey().toString().length()) + "\n");
+			String serverName = "";
+			if (options.resolveNames) {
+				serverName = entry.getValue().serverName;
+				serverName = " " + (serverName == null ? "n/a" : serverName);
+			}
+
+			System.out.print(entry.getKey().toString().substring(0, entry.getKey().toString().length()) + serverName
+					+ "\n");
+		}
+
+		if (options.streamDirectory != null) {
+			writeStreams(captureData, sortedTcpConnectionsTable, options.streamDirectory);
+			return;
 		}
 
 		OutputStream out = new DataOutputStream(System.out);
@@ -599,1006 +711,765 @@ public class NetworkForensics {
 				}
 				out.flush();
 			}
-
-			out.close();
+			// System.out stays open for the tasks that follow
 		} catch (IOException e) {
 			System.out.println("Error in Outputstream");
 		}
 
 	}
 
-	static void task3(byte[] captureData, int captureSize) {
+	// Writes the reassembled uplink and downlink of every connection to
+	// <client ip>_<client port>_<server ip>_<server port>.up and .down
+	static void writeStreams(byte[] captureData, Map<ConnectionTuple, TcpConnection> tcpConnections,
+			String directory) {
 
-		Map<ConnectionTuple, TcpConnection> TcpConnectionsTable = new HashMap<ConnectionTuple, TcpConnection>();
+		File streamDirectory = new File(directory);
+		streamDirectory.mkdirs();
 
-		Map<Long, HttpConnection> httpConnectionReqTable = new HashMap<Long, HttpConnection>();
-		Map<Long, HttpConnection> httpConnectionResTable = new HashMap<Long, HttpConnection>();
-
-		// The Pcap file header is 24 bytes.
-		// Packet headers are 16 bytes.
-		// To count total number of packets need to count the number of packet
-		// headers.
-		// Ethernet header is 14 bytes
-		// Upper layer protocol of ipv4 is in 9th byte of ethernet header
-
-		// i in the loop points to the start of packet payload.
-		for (int i = PCAP_HEADER_LENGTH + PACKET_HEADER_LENGTH; i < captureSize;) {
-
-			long packetSequenceNumber;
-			long acknowledgementNumber;
-			long captureTime;
-			long microOffset;
-
-			// Converting 4 bytes of data into a single integer
-			int totalPacketLength = Byte.toUnsignedInt(captureData[i - 1]);
-			totalPacketLength <<= 8;
-			totalPacketLength |= Byte.toUnsignedInt(captureData[i - 2]);
-			totalPacketLength <<= 8;
-			totalPacketLength |= Byte.toUnsignedInt(captureData[i - 3]);
-			totalPacketLength <<= 8;
-			totalPacketLength |= Byte.toUnsignedInt(captureData[i - 4]);
-
-			// i+12 is specifies the length (if<1500) or type ethernet frame
-			// header
-			int frameType = Byte.toUnsignedInt(captureData[i + 12]);
-			frameType <<= 8;
-			frameType |= Byte.toUnsignedInt(captureData[i + 13]);
-
-			if (frameType == 2048) { // ipv4 packet
-
-				// i+ETHERNET_HEADER_LENGTH is the start of IP Packet
-				int ipHeaderLength = Byte.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH]);
-				// But only last 4 bits is the length
-				ipHeaderLength &= 15;// Removes first 4 bits
-				ipHeaderLength *= 4; // The length is specified as 32bit words
-
-				int ipTotalLength = Byte.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH + 2]);
-				ipTotalLength <<= 8;
-				ipTotalLength |= Byte.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH + 3]);
-
-				if (Byte.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH + 9]) == 6) { // TCP
-					// packet
-
-					TcpConnection tcpConnection;
-					ConnectionTuple connection = new ConnectionTuple();
-					ConnectionTuple revConnection = new ConnectionTuple();
-
-					// first 4 bytes of 12th byte of TCP header is data offset
-					int tcpHeaderLength = Byte
-							.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH + ipHeaderLength + 12]);
-					tcpHeaderLength >>= 4;
-					tcpHeaderLength *= 4; // 32bit words to bytes
-
-					int tcpPayloadLength = ipTotalLength - ipHeaderLength - tcpHeaderLength;
-
-					IpAddress temp = new IpAddress();
-					temp.firstByte = captureData[i + ETHERNET_HEADER_LENGTH + 12];
-					temp.secondByte = captureData[i + ETHERNET_HEADER_LENGTH + 13];
-					temp.thirdByte = captureData[i + ETHERNET_HEADER_LENGTH + 14];
-					temp.fourthByte = captureData[i + ETHERNET_HEADER_LENGTH + 15];
-					connection.sourceIp = temp;
-
-					temp = new IpAddress();
-					temp.firstByte = captureData[i + ETHERNET_HEADER_LENGTH + 16];
-					temp.secondByte = captureData[i + ETHERNET_HEADER_LENGTH + 17];
-					temp.thirdByte = captureData[i + ETHERNET_HEADER_LENGTH + 18];
-					temp.fourthByte = captureData[i + ETHERNET_HEADER_LENGTH + 19];
-					connection.destinationIp = temp;
-
-					connection.sourcePort = Byte
-							.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH + ipHeaderLength]);
-					connection.sourcePort <<= 8;
-					connection.sourcePort |= Byte
-							.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH + ipHeaderLength + 1]);
-
-					connection.destinationPort = Byte
-							.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH + ipHeaderLength + 2]);
-					connection.destinationPort <<= 8;
-					connection.destinationPort |= Byte
-							.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH + ipHeaderLength + 3]);
-
-					revConnection.destinationIp = connection.sourceIp;
-					revConnection.sourceIp = connection.destinationIp;
-					revConnection.sourcePort = connection.destinationPort;
-					revConnection.destinationPort = connection.sourcePort;
-
-					if (TcpConnectionsTable.containsKey(connection)) {
-
-						tcpConnection = TcpConnectionsTable.get(connection);
-
-					} else if (TcpConnectionsTable.containsKey(revConnection)) {
-
-						tcpConnection = TcpConnectionsTable.get(revConnection);
-
-					} else {
-
-						tcpConnection = new TcpConnection();
-						tcpConnection.source = connection.sourceIp;
-						tcpConnection.destination = connection.destinationIp;
-						tcpConnection.sport = connection.sourcePort;
-						tcpConnection.dport = connection.destinationPort;
+		for (Entry<ConnectionTuple, TcpConnection> entry : tcpConnections.entrySet()) {
 
-					}
+			ConnectionTuple connection = entry.getKey();
+			String name = connection.sourceIp + "_" + connection.sourcePort + "_" + connection.destinationIp + "_"
+					+ connection.destinationPort;
 
-					// Only Http Connections required for this task
-					if (connection.sourcePort == 80 || connection.destinationPort == 80) {
-
-						packetSequenceNumber = Byte
-								.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH + ipHeaderLength + 4]);
-						packetSequenceNumber <<= 8;
-						packetSequenceNumber |= Byte
-								.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH + ipHeaderLength + 5]);
-						packetSequenceNumber <<= 8;
-						packetSequenceNumber |= Byte
-								.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH + ipHeaderLength + 6]);
-						packetSequenceNumber <<= 8;
-						packetSequenceNumber |= Byte
-								.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH + ipHeaderLength + 7]);
-
-						acknowledgementNumber = Byte
-								.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH + ipHeaderLength + 8]);
-						acknowledgementNumber <<= 8;
-						acknowledgementNumber |= Byte
-								.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH + ipHeaderLength + 9]);
-						acknowledgementNumber <<= 8;
-						acknowledgementNumber |= Byte
-								.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH + ipHeaderLength + 10]);
-						acknowledgementNumber <<= 8;
-						acknowledgementNumber |= Byte
-								.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH + ipHeaderLength + 11]);
-
-						// System.out.println("First time: " + (i - 12) + "\t" +
-						// Byte.toUnsignedInt(captureData[i - 12]));
-
-						microOffset = Byte.toUnsignedInt(captureData[i - 9]);
-						microOffset <<= 8;
-						microOffset |= Byte.toUnsignedInt(captureData[i - 10]);
-						microOffset <<= 8;
-						microOffset |= Byte.toUnsignedInt(captureData[i - 11]);
-						microOffset <<= 8;
-						microOffset |= Byte.toUnsignedInt(captureData[i - 12]);
-
-						// System.out.println("Micro: " + microOffset);
-
-						captureTime = Byte.toUnsignedInt(captureData[i - 13]);
-						captureTime <<= 8;
-						captureTime |= Byte.toUnsignedInt(captureData[i - 14]);
-						captureTime <<= 8;
-						captureTime |= Byte.toUnsignedInt(captureData[i - 15]);
-						captureTime <<= 8;
-						captureTime |= Byte.toUnsignedInt(captureData[i - 16]);
-
-						int tcpPayloadStart = i + ETHERNET_HEADER_LENGTH + ipHeaderLength + tcpHeaderLength;
-
-						Packet packet = new Packet();
-						packet.sequenceNumber = packetSequenceNumber;
-						packet.acknowledgementNumber = acknowledgementNumber;
-						packet.captureTime = captureTime;
-						packet.microOffset = microOffset;
-
-						if (connection.destinationPort == 80) {
-
-							for (int j = 0; j < tcpPayloadLength && tcpPayloadLength != 0; ++j) {
-
-								packet.data.add(captureData[tcpPayloadStart + j]);
-
-							}
-							tcpConnection.upstreamPackets.add(packet);
-							tcpConnection.upDataLength += tcpPayloadLength;
-
-							TcpConnectionsTable.put(connection, tcpConnection);
-
-						} else if (connection.sourcePort == 80) {
-
-							for (int k = 0; k < tcpPayloadLength && tcpPayloadLength != 0; ++k) {
-
-								packet.data.add(captureData[tcpPayloadStart + k]);
-
-							}
-							tcpConnection.downstreamPackets.add(packet);
-							tcpConnection.downDataLength += tcpPayloadLength;
-
-							TcpConnectionsTable.put(revConnection, tcpConnection);
-						}
+			writeStream(new ReassembledStream(captureData, entry.getValue().upstreamPackets),
+					new File(streamDirectory, name + ".up"));
+			writeStream(new ReassembledStream(captureData, entry.getValue().downstreamPackets),
+					new File(streamDirectory, name + ".down"));
+		}
+	}
 
-					}
+	static void writeStream(ReassembledStream stream, File file) {
 
-				}
-			}
-			i += totalPacketLength + PACKET_HEADER_LENGTH;
+		try (FileChannel channel = new FileOutputStream(file).getChannel()) {
+			stream.writeTo(channel);
+		} catch (IOException e) {
+			System.err.println("Error writing " + file + ": " + e.getMessage());
+		}
+	}
 
+	// The tuple of the packet's connection from the client to port 80
+	static ConnectionTuple clientServerTuple(PacketView view) {
+
+		ConnectionTuple connection = new ConnectionTuple();
+		if (view.destinationPort() == 80) {
+			connection.sourceIp = view.sourceIpAddress();
+			connection.destinationIp = view.destinationIpAddress();
+			connection.sourcePort = view.sourcePort();
+			connection.destinationPort = view.destinationPort();
+		} else {
+			connection.sourceIp = view.destinationIpAddress();
+			connection.destinationIp = view.sourceIpAddress();
+			connection.sourcePort = view.destinationPort();
+			connection.destinationPort = view.sourcePort();
 		}
+		return connection;
+	}
 
-		for (Entry<ConnectionTuple, TcpConnection> entry : TcpConnectionsTable.entrySet()) {
+	static void task3(PacketView view, Options options) {
 
-			TcpConnection tcpConnection = entry.getValue();
-			List<Packet> requestPackets = tcpConnection.upstreamPackets;
-			List<Packet> responsePackets = tcpConnection.downstreamPackets;
+		Iterable<HttpConnection> outArray = httpTransactions(view, options);
 
-			for (int i = 0; i < requestPackets.size(); ++i) {
-				HttpConnection httpRequestConnection = new HttpConnection();
-				List<Byte> requestData = requestPackets.get(i).data;
-				boolean shouldStore = false;
-				httpRequestConnection.acknowledgementNumber = requestPackets.get(i).acknowledgementNumber;
-				httpRequestConnection.sequenceNumber = requestPackets.get(i).sequenceNumber;
-				httpRequestConnection.receptionTime = String.valueOf(requestPackets.get(i).captureTime) + " "
-						+ String.valueOf(requestPackets.get(i).microOffset);
+		if (options.exportFile != null) {
+			try (TransactionWriter writer = new TransactionWriter(new FileOutputStream(options.exportFile))) {
+				for (HttpConnection httpConnection : outArray)
+					writer.add(httpConnection);
+			} catch (IOException e) {
+				System.err.println("Error writing " + options.exportFile + ": " + e.getMessage());
+			}
+		}
 
-				httpRequestConnection.captureTime = requestPackets.get(i).captureTime;
-				httpRequestConnection.microOffset = requestPackets.get(i).microOffset;
+		// With --resolve the server name at the start of the connection is
+		// added, n/a when the capture has no answer for it
+		for (HttpConnection httpConnection : outArray) {
 
-				int prevChar = 0;
-				int curChar = 0;
-				StringBuilder singleLine = new StringBuilder();
-				boolean isNewBlock = true;
+			String serverName = "";
+			if (options.resolveNames) {
+				serverName = httpConnection.serverName;
+				serverName = " " + (serverName == null ? "n/a" : serverName);
+			}
 
-				for (int j = 0; j < requestData.size(); ++j, prevChar = curChar) {
+			System.out.print(httpConnection.requestedUrl.toLowerCase() + " " + httpConnection.hostname.toLowerCase()
+					+ " " + httpConnection.responseCode + " " + httpConnection.responseBodyLength
+					+ (options.decompress ? " " + httpConnection.decodedBodyLength : "") + serverName + "\n");
 
-					curChar = requestData.get(j);
-					singleLine.append((char) curChar);
+		}
 
-					if (prevChar == 13 && curChar == 10 && singleLine.length() == 2) {
-						isNewBlock = true;
-						singleLine.delete(0, singleLine.length());
-					} else if (prevChar == 13 && curChar == 10) {
+	}
 
-						String firstWord = "noSpace";
-						if (singleLine.indexOf(" ") != -1) {
-							firstWord = singleLine.substring(0, singleLine.indexOf(" "));
-						}
+	// HTTP transactions of the capture, request/response pairs in the order of
+	// the reception time of the request
+	static Iterable<HttpConnection> httpTransactions(PacketView view, Options options) {
 
-						if (isNewBlock) {
+		byte[] captureData = view.data;
+		Map<ConnectionTuple, TcpConnection> TcpConnectionsTable = new HashMap<ConnectionTuple, TcpConnection>();
+		// Fed by the decoder as it walks the capture
+		DnsCache dnsCache = options.resolveNames ? new DnsCache() : null;
+
+		// Periodic snapshots of the flow table, and the table to start from on
+		// resume. Both need the whole capture.
+		Checkpoint checkpoint = null;
+		if (options.checkpointFile != null) {
+			view.readAll();
+			int captureSize = view.captureSize;
+			checkpoint = new Checkpoint(options.checkpointFile, options.checkpointInterval);
+			try {
+				int resumeOffset = 0;
+				if (options.resume)
+					resumeOffset = checkpoint.restore(captureData, captureSize, TcpConnectionsTable);
+				if (resumeOffset != 0) {
+					if (dnsCache != null)
+						resolveRestored(view, resumeOffset, dnsCache, TcpConnectionsTable);
+					view.seek(resumeOffset);
+				}
+				checkpoint.open(captureData, captureSize, resumeOffset != 0);
+			} catch (IOException e) {
+				System.err.println("Error reading " + options.checkpointFile + ": " + e.getMessage());
+				TcpConnectionsTable.clear();
+				checkpoint = null;
+			}
+		}
 
-							if (firstWord.equalsIgnoreCase("HEAD") || firstWord.equalsIgnoreCase("GET")
-									|| firstWord.equalsIgnoreCase("POST") || firstWord.equalsIgnoreCase("PUT")
-									|| firstWord.equalsIgnoreCase("DELETE")) {
+		return HttpPipeline.run(captureData, view, TcpConnectionsTable, checkpoint, dnsCache, options, false, null);
+	}
 
-								int firstSpace = singleLine.indexOf(" ") + 1;
-								// System.out
-								// .println(singleLine.substring(firstSpace,
-								// singleLine.indexOf(" ", firstSpace + 1)));
+	// Takes the answers before the resume offset, and resolves the restored
+	// connections at their first packet as the decoder would have
+	static void resolveRestored(PacketView view, int resumeOffset, DnsCache dnsCache,
+			Map<ConnectionTuple, TcpConnection> table) {
 
-								httpRequestConnection.requestedUrl = singleLine.substring(firstSpace,
-										singleLine.indexOf(" ", firstSpace + 1));
-								shouldStore = true;
-								// System.out.println(
-								// (httpRequestConnection.sequenceNumber +
-								// requestPackets.get(i).data.size()) + " "
-								// + httpRequestConnection.requestedUrl);
+		while (view.next() && view.start() < resumeOffset) {
 
-							}
+			dnsCache.add(view);
+			if (!view.isTcp() || (view.sourcePort() != 80 && view.destinationPort() != 80))
+				continue;
 
-							isNewBlock = false;
-						} else if (firstWord.equalsIgnoreCase("Host:")) {
+			TcpConnection tcpConnection = table.get(clientServerTuple(view));
+			if (tcpConnection != null && tcpConnection.startTime == view.timestamp())
+				tcpConnection.serverName = dnsCache.lookup(tcpConnection.destination, tcpConnection.startTime);
+		}
+	}
 
-							int firstSpace = singleLine.indexOf(" ") + 1;
-							// System.out.println(singleLine.substring(firstSpace,
-							// singleLine.length() - 2));
+	// Heavy hitters over the task3 transactions
+	static void task5(PacketView view, Options options) {
 
-							httpRequestConnection.hostname = singleLine.substring(firstSpace, singleLine.length() - 2);
+		HeavyHitters heavyHitters = new HeavyHitters(options.topCount);
+		long interval = options.topInterval * 1000000L;
+		long nextReport = -1L;
 
-						}
+		for (HttpConnection httpConnection : httpTransactions(view, options)) {
 
-						singleLine.delete(0, singleLine.length());
-					}
+			long requestTime = httpConnection.timestamp();
 
+			// Intermediate reports are cumulative and taken whenever the request
+			// time passes an interval boundary
+			if (interval > 0) {
+				if (nextReport < 0) {
+					nextReport = requestTime - requestTime % interval + interval;
+				} else if (requestTime >= nextReport) {
+					System.out.print("# " + nextReport / 1000000L + "\n");
+					heavyHitters.print(System.out);
+					nextReport = requestTime - requestTime % interval + interval;
 				}
-				// Storing the expected acknowledgement Number of response
-				if (shouldStore)
-					httpConnectionReqTable.put(httpRequestConnection.sequenceNumber + requestPackets.get(i).data.size(),
-							httpRequestConnection);
 			}
 
-			long chunkedLength = 0L;
-			long chunkCounter = 0L;
-			boolean chunkCounterActive = false;
-			long chunkKey = 0L;
-			for (int i = 0; i < responsePackets.size(); ++i) {
-				List<Byte> responseData = responsePackets.get(i).data;
-				boolean shouldStore = false;
-				boolean chunkedEncoding = false;
-				long contentLength = 0L;
+			heavyHitters.add(httpConnection);
+		}
 
-				HttpConnection httpResponseConnection = new HttpConnection();
+		System.out.print("# end\n");
+		heavyHitters.print(System.out);
+	}
 
-				httpResponseConnection.acknowledgementNumber = responsePackets.get(i).acknowledgementNumber;
-				httpResponseConnection.sequenceNumber = responsePackets.get(i).sequenceNumber;
-				httpResponseConnection.receptionTime = responsePackets.get(i).captureTime + " "
-						+ responsePackets.get(i).microOffset;
+	// Traffic counters rolled into fixed capture time buckets. A bucket is
+	// printed as soon as a packet falls past its end, buckets without packets
+	// are not printed. Each line is: bucket start in seconds, packets, bytes,
+	// IP, TCP and UDP packets, new TCP connections and HTTP requests.
+	static void task6(PacketView view, Options options) {
+
+		byte[] captureData = view.data;
+		long bucketLength = options.bucketLength;
+		TrafficBucket bucket = new TrafficBucket();
+		bucket.reset(-1L);
+
+		while (view.next()) {
+
+			long captureTime = view.seconds();
+			long bucketStart = captureTime - captureTime % bucketLength;
+			if (bucket.start < 0) {
+				bucket.reset(bucketStart);
+			} else if (bucketStart > bucket.start) {
+				System.out.print(bucket + "\n");
+				bucket.reset(bucketStart);
+			}
+			// A packet slightly out of time order is counted in the open bucket
 
-				httpResponseConnection.captureTime = responsePackets.get(i).captureTime;
-				httpResponseConnection.microOffset = responsePackets.get(i).microOffset;
+			bucket.packetCount++;
+			bucket.byteCount += view.wireLength();
 
-				int prevChar = 0;
-				int curChar = 0;
-				boolean isNewBlock = true;
-				StringBuilder singleLine = new StringBuilder();
+			if (view.frameType() != PacketView.ETHERTYPE_IPV4)
+				continue;
+			bucket.ipPacketCount++;
 
-				for (int j = 0; j < responseData.size(); ++j, prevChar = curChar) {
+			if (view.isTcp()) {
+				bucket.tcpPacketCount++;
 
-					curChar = responseData.get(j);
-					singleLine.append((char) curChar);
+				// A new connection is an opening SYN, which keeps memory
+				// independent of the number of connections
+				if ((view.tcpFlags() & 0x12) == 0x02)
+					bucket.newConnectionCount++;
 
-					if (prevChar == 13 && curChar == 10 && singleLine.length() == 2) {
-						isNewBlock = true;
-						// System.out.println(isNewBlock);
-						singleLine.delete(0, singleLine.length());
-					} else if (prevChar == 13 && curChar == 10) {
+				if (isHttpRequestStart(captureData, view.payloadStart(), view.payloadLength()))
+					bucket.httpTransactionCount++;
 
-						String firstWord = "noSpace";
-						if (singleLine.indexOf(" ") != -1) {
-							firstWord = singleLine.substring(0, singleLine.indexOf(" "));
-							// if (chunkedEncoding)
-							// System.out.println("Chunk first word : " +
-							// firstWord);
-						}
+			} else if (view.isUdp()) {
+				bucket.udpPacketCount++;
+			}
+		}
 
-						if (chunkCounterActive) {
-							// -2 is to eliminate the \r\n in the end
-							if (chunkCounter < -2) {
-								String encodingValue = singleLine.substring(0, singleLine.length() - 2);
-								// System.out.println("value is : " +
-								// encodingValue);
-								chunkCounter = Long.parseLong(encodingValue, 16);
-								chunkedLength += chunkCounter;
-								if (chunkCounter == 0) {
-									// End of Chunk reached
-									// System.out.println("Total Length " +
-									// chunkedLength);
-									HttpConnection temp = httpConnectionResTable.get(chunkKey);
-									temp.responseBodyLength = chunkedLength;
-									httpConnectionResTable.put(chunkKey, temp);
-
-									chunkCounterActive = false;
-								} else
-									chunkCounterActive = true;
-
-							}
-						}
-						if (firstWord.equalsIgnoreCase("HTTP/1.1")) {
-							int firstSpace = singleLine.indexOf(" ") + 1;
-							// System.out.print(httpResponseConnection.acknowledgementNumber
-							// + " " + singleLine);
-							httpResponseConnection.responseCode = Integer.parseInt(
-									singleLine.substring(firstSpace, singleLine.indexOf(" ", firstSpace + 1)));
-
-							shouldStore = true;
-
-							// System.out.println(httpResponseConnection.acknowledgementNumber
-							// + " "
-							// + httpResponseConnection.responseCode);
-
-						} else if (firstWord.equalsIgnoreCase("Content-Length:")) {
-							int firstSpace = singleLine.indexOf(" ") + 1;
-							contentLength = Long.parseLong(singleLine.substring(firstSpace, singleLine.length() - 2));
-
-						} else if (firstWord.equalsIgnoreCase("Transfer-Encoding:")) {
-							int firstSpace = singleLine.indexOf(" ") + 1;
-							if (singleLine.substring(firstSpace, singleLine.length() - 2).equals("chunked")) {
-								chunkedEncoding = true;
-
-								// System.out.println("chunked: ");
-							}
-
-						} else if (isNewBlock && singleLine.indexOf(" ") == -1 && chunkedEncoding) {
-							// This executes only at the start of chunk
-							chunkKey = httpResponseConnection.acknowledgementNumber;
-							String encodingValue = singleLine.substring(0, singleLine.length() - 2);
-							chunkedLength = 0;
-							// System.out
-							// .println("value is : " + encodingValue + "\t" +
-							// Long.parseLong(encodingValue, 16));
-							chunkCounter = Long.parseLong(encodingValue, 16);
-							chunkedLength += chunkCounter;
-							chunkCounterActive = true;
+		if (bucket.start >= 0)
+			System.out.print(bucket + "\n");
+	}
 
-						}
-						isNewBlock = false;
-						singleLine.delete(0, singleLine.length());
-					}
-					// this is to keep track of chunk
-					if (chunkCounterActive)
-						chunkCounter--;
+	// TCP analytics of the port 80 connections, one line per connection in
+	// the order of task2: the task2 fields followed by the FlowAnalytics ones
+	static void task7(PacketView view, Options options) {
 
-				}
-				if (shouldStore) {
+		Map<ConnectionTuple, Integer> flows = new HashMap<ConnectionTuple, Integer>();
+		Map<ConnectionTuple, Integer> sortedFlows = new TreeMap<ConnectionTuple, Integer>();
+		FlowAnalytics analytics = new FlowAnalytics(1024);
+		List<ConnectionTuple> connections = new ArrayList<ConnectionTuple>();
 
-					if (chunkedEncoding) {
-						httpResponseConnection.responseBodyLength = chunkedLength;
-					} else {
-						httpResponseConnection.responseBodyLength = contentLength;
-					}
-					httpConnectionResTable.put(httpResponseConnection.acknowledgementNumber, httpResponseConnection);
-				}
-			}
-			// httpConnectionTable.put(httpConnection, httpConnection);
-
-		}
+		while (view.next()) {
 
-		// System.out.println(httpConnectionResTable.size() + "\t" +
-		// httpConnectionReqTable.size());
+			if (!view.isTcp() || (view.sourcePort() != 80 && view.destinationPort() != 80))
+				continue;
 
-		List<HttpConnection> outArray = new ArrayList<HttpConnection>();
+			ConnectionTuple connection = clientServerTuple(view);
 
-		for (Entry<Long, HttpConnection> entry : httpConnectionReqTable.entrySet()) {
+			Integer flow = flows.get(connection);
+			if (flow == null) {
+				flow = analytics.addFlow(view.timestamp());
+				flows.put(connection, flow);
+				connections.add(connection);
+			}
 
-			HttpConnection httpConnection = entry.getValue();
-			HttpConnection newOne = new HttpConnection();
+			// Counted as task2 counts them
+			connection = connections.get(flow);
+			if (view.destinationPort() == 80) {
+				connection.upDataLength += view.payloadLength();
+				analytics.add(flow, FlowAnalytics.UP, view);
+			} else {
+				connection.downDataLength += view.payloadLength();
+				analytics.add(flow, FlowAnalytics.DOWN, view);
+			}
+		}
 
-			long seqNum = entry.getKey();
+		// Sorted once the byte counts are final, they are part of the key
+		for (Entry<ConnectionTuple, Integer> entry : flows.entrySet())
+			sortedFlows.put(entry.getKey(), entry.getValue());
 
-			if (httpConnectionResTable.containsKey(seqNum)) {
+		for (Entry<ConnectionTuple, Integer> entry : sortedFlows.entrySet())
+			System.out.print(entry.getKey() + " " + analytics.toString(entry.getValue()) + "\n");
+	}
 
-				// System.out.println(httpConnection.requestedUrl + " " +
-				// httpConnection.hostname + " "
-				// + httpConnectionResTable.get(seqNum).responseCode + " "
-				// + httpConnectionResTable.get(seqNum).responseBodyLength);
-				httpConnection.responseCode = httpConnectionResTable.get(seqNum).responseCode;
-				httpConnection.responseBodyLength = httpConnectionResTable.get(seqNum).responseBodyLength;
+	// Server latency of the task3 transactions, the time from the request to
+	// the first and to the last byte of the response. One line per host and a
+	// last one for all hosts, "*": host, transactions, then p50, p90, p99 and
+	// max of each of the two latencies in microseconds.
+	static void task8(PacketView view, Options options) {
 
-				newOne.responseCode = httpConnection.responseCode;
-				newOne.responseBodyLength = httpConnection.responseBodyLength;
-				newOne.receptionTime = httpConnection.receptionTime;
+		Map<String, LatencyHistogram[]> hostHistograms = new TreeMap<String, LatencyHistogram[]>();
+		LatencyHistogram[] allHistograms = { new LatencyHistogram(), new LatencyHistogram() };
 
-				// if (outputTable.containsKey(httpConnection))
-				// System.out.println("omg\t" + httpConnection.hostname);
+		for (HttpConnection httpConnection : httpTransactions(view, options)) {
 
-				// outputTable.put(httpConnection, httpConnection);
+			String host = httpConnection.hostname.toLowerCase();
+			if (host.isEmpty())
+				host = "-";
 
-				outArray.add(httpConnection);
+			LatencyHistogram[] histograms = hostHistograms.get(host);
+			if (histograms == null) {
+				histograms = new LatencyHistogram[] { new LatencyHistogram(), new LatencyHistogram() };
+				hostHistograms.put(host, histograms);
 			}
 
+			long firstByte = httpConnection.responseTimestamp - httpConnection.timestamp();
+			long lastByte = httpConnection.lastByteTimestamp - httpConnection.timestamp();
+			histograms[0].add(firstByte);
+			histograms[1].add(lastByte);
+			allHistograms[0].add(firstByte);
+			allHistograms[1].add(lastByte);
 		}
 
-		outArray.sort(HttpConnection.HttpConnectionComparator);
-
-		for (HttpConnection httpConnection : outArray) {
+		for (Entry<String, LatencyHistogram[]> entry : hostHistograms.entrySet())
+			System.out.print(latencyLine(entry.getKey(), entry.getValue()));
+		System.out.print(latencyLine("*", allHistograms));
+	}
 
-			System.out.print(httpConnection.requestedUrl.toLowerCase() + " " + httpConnection.hostname.toLowerCase()
-					+ " " + httpConnection.responseCode + " " + httpConnection.responseBodyLength + "\n");
+	static String latencyLine(String host, LatencyHistogram[] histograms) {
+		return host + " " + histograms[0].totalCount + " " + histograms[0] + " " + histograms[1] + "\n";
+	}
 
-		}
+	static final String[] HTTP_METHODS = { "GET ", "POST ", "HEAD ", "PUT ", "DELETE " };
 
-	}
+	// True when the payload begins with an HTTP request line
+	static boolean isHttpRequestStart(byte[] captureData, int start, int length) {
 
-	static void task4(byte[] captureData, int captureSize) {
+		for (String method : HTTP_METHODS) {
+			if (length < method.length())
+				continue;
 
-		Map<ConnectionTuple, TcpConnection> TcpConnectionsTable = new HashMap<ConnectionTuple, TcpConnection>();
+			int k = 0;
+			while (k < method.length() && captureData[start + k] == method.charAt(k))
+				k++;
+			if (k == method.length())
+				return true;
+		}
+		return false;
+	}
 
-		Map<Long, HttpConnection> httpConnectionReqTable = new HashMap<Long, HttpConnection>();
-		Map<Long, HttpConnection> httpConnectionResTable = new HashMap<Long, HttpConnection>();
-
-		// The Pcap file header is 24 bytes.
-		// Packet headers are 16 bytes.
-		// To count total number of packets need to count the number of packet
-		// headers.
-		// Ethernet header is 14 bytes
-		// Upper layer protocol of ipv4 is in 9th byte of ethernet header
-
-		// i in the loop points to the start of packet payload.
-		for (int i = PCAP_HEADER_LENGTH + PACKET_HEADER_LENGTH; i < captureSize;) {
-
-			long packetSequenceNumber;
-			long acknowledgementNumber;
-			long captureTime;
-			long microOffset;
-
-			// Converting 4 bytes of data into a single integer
-			int totalPacketLength = Byte.toUnsignedInt(captureData[i - 1]);
-			totalPacketLength <<= 8;
-			totalPacketLength |= Byte.toUnsignedInt(captureData[i - 2]);
-			totalPacketLength <<= 8;
-			totalPacketLength |= Byte.toUnsignedInt(captureData[i - 3]);
-			totalPacketLength <<= 8;
-			totalPacketLength |= Byte.toUnsignedInt(captureData[i - 4]);
-
-			// i+12 is specifies the length (if<1500) or type ethernet frame
-			// header
-			int frameType = Byte.toUnsignedInt(captureData[i + 12]);
-			frameType <<= 8;
-			frameType |= Byte.toUnsignedInt(captureData[i + 13]);
-
-			if (frameType == 2048) { // ipv4 packet
-
-				// i+ETHERNET_HEADER_LENGTH is the start of IP Packet
-				int ipHeaderLength = Byte.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH]);
-				// But only last 4 bits is the length
-				ipHeaderLength &= 15;// Removes first 4 bits
-				ipHeaderLength *= 4; // The length is specified as 32bit words
-
-				int ipTotalLength = Byte.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH + 2]);
-				ipTotalLength <<= 8;
-				ipTotalLength |= Byte.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH + 3]);
-
-				if (Byte.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH + 9]) == 6) { // TCP
-					// packet
-
-					TcpConnection tcpConnection;
-					ConnectionTuple connection = new ConnectionTuple();
-					ConnectionTuple revConnection = new ConnectionTuple();
-
-					// first 4 bytes of 12th byte of TCP header is data offset
-					int tcpHeaderLength = Byte
-							.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH + ipHeaderLength + 12]);
-					tcpHeaderLength >>= 4;
-					tcpHeaderLength *= 4; // 32bit words to bytes
-
-					int tcpPayloadLength = ipTotalLength - ipHeaderLength - tcpHeaderLength;
-
-					IpAddress temp = new IpAddress();
-					temp.firstByte = captureData[i + ETHERNET_HEADER_LENGTH + 12];
-					temp.secondByte = captureData[i + ETHERNET_HEADER_LENGTH + 13];
-					temp.thirdByte = captureData[i + ETHERNET_HEADER_LENGTH + 14];
-					temp.fourthByte = captureData[i + ETHERNET_HEADER_LENGTH + 15];
-					connection.sourceIp = temp;
-
-					temp = new IpAddress();
-					temp.firstByte = captureData[i + ETHERNET_HEADER_LENGTH + 16];
-					temp.secondByte = captureData[i + ETHERNET_HEADER_LENGTH + 17];
-					temp.thirdByte = captureData[i + ETHERNET_HEADER_LENGTH + 18];
-					temp.fourthByte = captureData[i + ETHERNET_HEADER_LENGTH + 19];
-					connection.destinationIp = temp;
-
-					connection.sourcePort = Byte
-							.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH + ipHeaderLength]);
-					connection.sourcePort <<= 8;
-					connection.sourcePort |= Byte
-							.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH + ipHeaderLength + 1]);
-
-					connection.destinationPort = Byte
-							.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH + ipHeaderLength + 2]);
-					connection.destinationPort <<= 8;
-					connection.destinationPort |= Byte
-							.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH + ipHeaderLength + 3]);
-
-					revConnection.destinationIp = connection.sourceIp;
-					revConnection.sourceIp = connection.destinationIp;
-					revConnection.sourcePort = connection.destinationPort;
-					revConnection.destinationPort = connection.sourcePort;
-
-					if (TcpConnectionsTable.containsKey(connection)) {
-
-						tcpConnection = TcpConnectionsTable.get(connection);
-
-					} else if (TcpConnectionsTable.containsKey(revConnection)) {
-
-						tcpConnection = TcpConnectionsTable.get(revConnection);
-
-					} else {
-
-						tcpConnection = new TcpConnection();
-						tcpConnection.source = connection.sourceIp;
-						tcpConnection.destination = connection.destinationIp;
-						tcpConnection.sport = connection.sourcePort;
-						tcpConnection.dport = connection.destinationPort;
+	static void task4(PacketView view, Options options) {
 
-					}
+		ExtractedFileWriter fileWriter = null;
+		if (options.outputDirectory != null)
+			fileWriter = new ExtractedFileWriter(options.outputDirectory, options.writerThreads, options.decompress);
 
-					// Only Http Connections required for this task
-					if (connection.sourcePort == 80 || connection.destinationPort == 80) {
-
-						packetSequenceNumber = Byte
-								.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH + ipHeaderLength + 4]);
-						packetSequenceNumber <<= 8;
-						packetSequenceNumber |= Byte
-								.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH + ipHeaderLength + 5]);
-						packetSequenceNumber <<= 8;
-						packetSequenceNumber |= Byte
-								.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH + ipHeaderLength + 6]);
-						packetSequenceNumber <<= 8;
-						packetSequenceNumber |= Byte
-								.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH + ipHeaderLength + 7]);
-
-						acknowledgementNumber = Byte
-								.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH + ipHeaderLength + 8]);
-						acknowledgementNumber <<= 8;
-						acknowledgementNumber |= Byte
-								.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH + ipHeaderLength + 9]);
-						acknowledgementNumber <<= 8;
-						acknowledgementNumber |= Byte
-								.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH + ipHeaderLength + 10]);
-						acknowledgementNumber <<= 8;
-						acknowledgementNumber |= Byte
-								.toUnsignedInt(captureData[i + ETHERNET_HEADER_LENGTH + ipHeaderLength + 11]);
-
-						// System.out.println("First time: " + (i - 12) + "\t" +
-						// Byte.toUnsignedInt(captureData[i - 12]));
-
-						microOffset = Byte.toUnsignedInt(captureData[i - 9]);
-						microOffset <<= 8;
-						microOffset |= Byte.toUnsignedInt(captureData[i - 10]);
-						microOffset <<= 8;
-						microOffset |= Byte.toUnsignedInt(captureData[i - 11]);
-						microOffset <<= 8;
-						microOffset |= Byte.toUnsignedInt(captureData[i - 12]);
-
-						// System.out.println("Micro: " + microOffset);
-
-						captureTime = Byte.toUnsignedInt(captureData[i - 13]);
-						captureTime <<= 8;
-						captureTime |= Byte.toUnsignedInt(captureData[i - 14]);
-						captureTime <<= 8;
-						captureTime |= Byte.toUnsignedInt(captureData[i - 15]);
-						captureTime <<= 8;
-						captureTime |= Byte.toUnsignedInt(captureData[i - 16]);
-
-						int tcpPayloadStart = i + ETHERNET_HEADER_LENGTH + ipHeaderLength + tcpHeaderLength;
-
-						Packet packet = new Packet();
-						packet.sequenceNumber = packetSequenceNumber;
-						packet.acknowledgementNumber = acknowledgementNumber;
-						packet.captureTime = captureTime;
-						packet.microOffset = microOffset;
-
-						if (connection.destinationPort == 80) {
-
-							for (int j = 0; j < tcpPayloadLength && tcpPayloadLength != 0; ++j) {
-
-								packet.data.add(captureData[tcpPayloadStart + j]);
-
-							}
-							tcpConnection.upstreamPackets.add(packet);
-							tcpConnection.upDataLength += tcpPayloadLength;
-
-							TcpConnectionsTable.put(connection, tcpConnection);
-
-						} else if (connection.sourcePort == 80) {
-
-							for (int k = 0; k < tcpPayloadLength && tcpPayloadLength != 0; ++k) {
-
-								packet.data.add(captureData[tcpPayloadStart + k]);
-
-							}
-							tcpConnection.downstreamPackets.add(packet);
-							tcpConnection.downDataLength += tcpPayloadLength;
-
-							TcpConnectionsTable.put(revConnection, tcpConnection);
-						}
+		// Without dedup the files are written while the pipeline still parses.
+		// With it a body is only written once its digest shows it is the first
+		// copy, so duplicates never reach the disk.
+		boolean writeAfterDigest = fileWriter != null && options.dedup != Options.DEDUP_OFF;
+		Iterable<HttpConnection> outArray = HttpPipeline.run(view.data, view,
+				new HashMap<ConnectionTuple, TcpConnection>(), null, null, options, true,
+				writeAfterDigest ? null : fileWriter);
 
-					}
+		// Each image is copied from the capture buffer straight into its chunk,
+		// the body length is already known from parseResponses
+		OutputStream out = new DataOutputStream(System.out);
+		DigestSet digestSet = new DigestSet();
+		try {
+			MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+			OutputStream digestStream = new OutputStream() {
 
+				@Override
+				public void write(int b) {
+					messageDigest.update((byte) b);
 				}
-			}
-			i += totalPacketLength + PACKET_HEADER_LENGTH;
 
-		}
-
-		for (Entry<ConnectionTuple, TcpConnection> entry : TcpConnectionsTable.entrySet()) {
+				@Override
+				public void write(byte[] b, int off, int len) {
+					messageDigest.update(b, off, len);
+				}
 
-			TcpConnection tcpConnection = entry.getValue();
-			List<Packet> requestPackets = tcpConnection.upstreamPackets;
-			List<Packet> responsePackets = tcpConnection.downstreamPackets;
+			};
 
-			for (int i = 0; i < requestPackets.size(); ++i) {
-				HttpConnection httpRequestConnection = new HttpConnection();
-				List<Byte> requestData = requestPackets.get(i).data;
-				boolean shouldStore = false;
-				httpRequestConnection.acknowledgementNumber = requestPackets.get(i).acknowledgementNumber;
-				httpRequestConnection.sequenceNumber = requestPackets.get(i).sequenceNumber;
-				httpRequestConnection.receptionTime = String.valueOf(requestPackets.get(i).captureTime) + " "
-						+ String.valueOf(requestPackets.get(i).microOffset);
+			for (HttpConnection httpConnection : outArray) {
 
-				httpRequestConnection.captureTime = requestPackets.get(i).captureTime;
-				httpRequestConnection.microOffset = requestPackets.get(i).microOffset;
+				String chunkExtension = "";
+
+				if (options.dedup != Options.DEDUP_OFF) {
+					// First pass over the body only feeds the digest
+					messageDigest.reset();
+					writeResponseBody(httpConnection, digestStream, options.decompress);
+					ByteBuffer digest = ByteBuffer.wrap(messageDigest.digest());
+					long high = digest.getLong();
+					long low = digest.getLong();
+
+					int count = digestSet.add(high, low, (int) httpConnection.decodedBodyLength);
+					if (count > 1) {
+						if (options.dedup == Options.DEDUP_REFERENCE) {
+							// The reference record carries the digest of the first copy
+							String reference = DigestSet.toHex(high, low);
+							out.write((Integer.toHexString(reference.length()) + ";ref\r\n" + reference + "\r\n")
+									.getBytes());
+						}
+						continue;
+					}
+					chunkExtension = ";digest=" + DigestSet.toHex(high, low);
+					if (writeAfterDigest)
+						fileWriter.submit(httpConnection);
+				}
 
-				int prevChar = 0;
-				int curChar = 0;
-				StringBuilder singleLine = new StringBuilder();
-				boolean isNewBlock = true;
+				out.write((Long.toHexString(httpConnection.decodedBodyLength) + chunkExtension + "\r\n").getBytes());
+				writeResponseBody(httpConnection, out, options.decompress);
+				out.write("\r\n".getBytes());
+			}
+			// Termination chunk
+			out.write("0\r\n\r\n".getBytes());
+			out.flush();
+		} catch (IOException e) {
+			System.out.println("I/O exception");
+		} catch (NoSuchAlgorithmException e) {
+			System.out.println("SHA-256 not available");
+		}
 
-				for (int j = 0; j < requestData.size(); ++j, prevChar = curChar) {
+		if (options.dedup != Options.DEDUP_OFF)
+			digestSet.print(System.err);
 
-					curChar = requestData.get(j);
-					singleLine.append((char) curChar);
+		if (fileWriter != null) {
+			try {
+				fileWriter.close();
+			} catch (IOException e) {
+				System.err.println("Error writing extracted files: " + e.getMessage());
+			}
+		}
+	}
 
-					if (prevChar == 13 && curChar == 10 && singleLine.length() == 2) {
-						isNewBlock = true;
-						singleLine.delete(0, singleLine.length());
-					} else if (prevChar == 13 && curChar == 10) {
+	// Copies the response body from the capture buffer without the chunked
+	// encoding, and with decode also without the Content-Encoding. Returns the
+	// number of bytes written.
+	static long writeResponseBody(HttpConnection httpConnection, OutputStream out, boolean decode)
+			throws IOException {
+		return writeResponseBody(httpConnection, httpConnection.responseStream, out, decode);
+	}
 
-						String firstWord = "noSpace";
-						if (singleLine.indexOf(" ") != -1) {
-							firstWord = singleLine.substring(0, singleLine.indexOf(" "));
-						}
+	// Same as above through a cursor of its own, for use off the main thread
+	static long writeResponseBody(HttpConnection httpConnection, ReassembledStream stream, OutputStream out,
+			boolean decode) throws IOException {
 
-						if (isNewBlock) {
+		int encoding = decode ? InflatingOutputStream.encodingOf(httpConnection.contentEncoding) : 0;
+		InflatingOutputStream inflatingStream = null;
+		if (encoding != 0) {
+			inflatingStream = new InflatingOutputStream(out, encoding);
+			out = inflatingStream;
+		}
 
-							if (firstWord.equalsIgnoreCase("HEAD") || firstWord.equalsIgnoreCase("GET")
-									|| firstWord.equalsIgnoreCase("POST") || firstWord.equalsIgnoreCase("PUT")
-									|| firstWord.equalsIgnoreCase("DELETE")) {
+		long length;
+		stream.seek(httpConnection.bodyPosition);
+		if (httpConnection.chunkedEncoding) {
+			length = transferChunked(stream, out);
+		} else {
+			length = stream.copyTo(out, httpConnection.responseBodyLength);
+		}
 
-								int firstSpace = singleLine.indexOf(" ") + 1;
-								// System.out
-								// .println(singleLine.substring(firstSpace,
-								// singleLine.indexOf(" ", firstSpace + 1)));
+		if (inflatingStream != null) {
+			inflatingStream.close();
+			length = inflatingStream.decodedLength;
+		}
+		return length;
+	}
 
-								httpRequestConnection.requestedUrl = singleLine.substring(firstSpace,
-										singleLine.indexOf(" ", firstSpace + 1));
+	// Takes the method, URL and the headers of interest of the request in the
+	// packet. The lines are split with the word at a time scanner and the
+	// names matched with HeaderNames. Returns false when the packet holds no
+	// request line.
+	static boolean parseRequest(ByteScanner scanner, Packet packet, HttpConnection httpRequestConnection) {
+
+		byte[] data = scanner.data;
+		int end = packet.payloadStart + packet.payloadLength;
+		boolean isNewBlock = true;
+		boolean isRequest = false;
+
+		for (int lineStart = packet.payloadStart;;) {
+
+			int lineEnd = scanner.indexOfLineEnd(lineStart, end);
+			if (lineEnd == -1)
+				break;
+
+			if (lineEnd == lineStart) {
+				// Blank line, a pipelined request may follow
+				isNewBlock = true;
+			} else if (isNewBlock) {
+
+				int firstSpace = scanner.indexOf(lineStart, lineEnd, ' ');
+				int method = firstSpace == -1 ? HeaderNames.UNKNOWN
+						: HeaderNames.METHODS.lookup(data, lineStart, firstSpace);
+				if (method != HeaderNames.UNKNOWN) {
+					int urlEnd = scanner.indexOf(firstSpace + 2, lineEnd, ' ');
+					httpRequestConnection.requestedUrl = new String(data, firstSpace + 1,
+							(urlEnd == -1 ? lineEnd : urlEnd) - firstSpace - 1, StandardCharsets.ISO_8859_1);
+					httpRequestConnection.method = HeaderNames.METHODS.names[method];
+					isRequest = true;
+				}
 
-								String extension1 = " ";
-								String extension2 = " ";
+				isNewBlock = false;
+			} else {
 
-								if (httpRequestConnection.requestedUrl.length() > 5) {
-									extension1 = httpRequestConnection.requestedUrl
-											.substring(httpRequestConnection.requestedUrl.length() - 5);
-								}
-								if (httpRequestConnection.requestedUrl.length() > 4) {
-									extension2 = httpRequestConnection.requestedUrl
-											.substring(httpRequestConnection.requestedUrl.length() - 4);
-								}
-								// Only image formats required
-								if (extension1.equalsIgnoreCase(".jpeg") || extension1.equalsIgnoreCase(".webp")
-										|| extension2.equalsIgnoreCase(".jpg") || extension2.equalsIgnoreCase(".png")
-										|| extension2.equalsIgnoreCase(".gif"))
-									shouldStore = true;
-								// System.out.println(
-								// (httpRequestConnection.sequenceNumber +
-								// requestPackets.get(i).data.size()) + " "
-								// + httpRequestConnection.requestedUrl);
+				int colon = scanner.indexOf(lineStart, lineEnd, ':');
+				switch (colon == -1 ? HeaderNames.UNKNOWN : HeaderNames.HEADERS.lookup(data, lineStart, colon)) {
+				case HeaderNames.HOST:
+					httpRequestConnection.hostname = headerValue(data, colon + 1, lineEnd);
+					break;
+				case HeaderNames.USER_AGENT:
+					httpRequestConnection.userAgent = headerValue(data, colon + 1, lineEnd);
+					break;
+				default:
+					break;
+				}
+			}
 
-							}
+			lineStart = lineEnd + 2;
+		}
 
-							isNewBlock = false;
-						} else if (firstWord.equalsIgnoreCase("Host:")) {
+		return isRequest;
+	}
 
-							int firstSpace = singleLine.indexOf(" ") + 1;
-							// System.out.println(singleLine.substring(firstSpace,
-							// singleLine.length() - 2));
+	// data[start, end) without the surrounding spaces and tabs
+	static String headerValue(byte[] data, int start, int end) {
 
-							httpRequestConnection.hostname = singleLine.substring(firstSpace, singleLine.length() - 2);
+		while (start < end && (data[start] == ' ' || data[start] == '\t'))
+			start++;
+		while (end > start && (data[end - 1] == ' ' || data[end - 1] == '\t'))
+			end--;
+		return new String(data, start, end - start, StandardCharsets.ISO_8859_1);
+	}
 
-						}
+	// Walks the reassembled downlink of a connection and stores every response
+	// keyed by its acknowledgement number, together with the position of its
+	// body in the stream
+	static void parseResponses(ReassembledStream stream, Map<Long, HttpConnection> httpConnectionReqTable,
+			Map<Long, HttpConnection> httpConnectionResTable) throws IOException {
 
-						singleLine.delete(0, singleLine.length());
-					}
+		try {
+			while (stream.hasRemaining()) {
 
-				}
-				// Storing the expected acknowledgement Number of response
-				if (shouldStore)
-					httpConnectionReqTable.put(httpRequestConnection.sequenceNumber + requestPackets.get(i).data.size(),
-							httpRequestConnection);
-			}
+				long acknowledgementNumber = stream.acknowledgementNumber();
+				long responseTimestamp = stream.timestamp();
+				String statusLine = stream.readLine();
 
-			long chunkedLength = 0L;
-			long chunkCounter = 0L;
-			boolean chunkCounterActive = false;
-			long chunkKey = 0L;
-			// This is for contentLength
-			boolean headerEndWait = false;
-			boolean contentDataActive = false;
-			long contentKey = 0L;
-			long contentCounter = 0L;
-			long contentDataLength = 0L;
-			int contentResponseCode = 0;
-			List<Byte> contentData = new ArrayList<Byte>();
-
-			for (int i = 0; i < responsePackets.size(); ++i) {
-				List<Byte> responseData = responsePackets.get(i).data;
-				boolean shouldStore = false;
-				boolean chunkedEncoding = false;
-				long contentLength = 0L;
+				// Anything before a status line cannot be attributed to a response
+				if (!statusLine.regionMatches(true, 0, "HTTP/", 0, 5) || statusLine.indexOf(" ") == -1)
+					continue;
 
 				HttpConnection httpResponseConnection = new HttpConnection();
+				httpResponseConnection.acknowledgementNumber = acknowledgementNumber;
+				httpResponseConnection.responseTimestamp = responseTimestamp;
 
-				httpResponseConnection.acknowledgementNumber = responsePackets.get(i).acknowledgementNumber;
-				httpResponseConnection.sequenceNumber = responsePackets.get(i).sequenceNumber;
-				httpResponseConnection.receptionTime = responsePackets.get(i).captureTime + " "
-						+ responsePackets.get(i).microOffset;
+				int firstSpace = statusLine.indexOf(" ") + 1;
+				int secondSpace = statusLine.indexOf(" ", firstSpace);
+				httpResponseConnection.responseCode = Integer.parseInt(
+						statusLine.substring(firstSpace, secondSpace == -1 ? statusLine.length() : secondSpace));
 
-				httpResponseConnection.captureTime = responsePackets.get(i).captureTime;
-				httpResponseConnection.microOffset = responsePackets.get(i).microOffset;
+				long contentLength = 0L;
+				boolean chunkedEncoding = false;
 
-				int prevChar = 0;
-				int curChar = 0;
-				boolean isNewBlock = true;
-				StringBuilder singleLine = new StringBuilder();
-				List<Byte> singleLineBytes = new ArrayList<Byte>();
+				String line;
+				while ((line = stream.readLine()) != null && !line.isEmpty()) {
+
+					int colon = line.indexOf(":");
+					if (colon == -1)
+						continue;
+
+					int nameStart = 0;
+					int nameEnd = colon;
+					while (nameStart < nameEnd && line.charAt(nameStart) <= ' ')
+						nameStart++;
+					while (nameEnd > nameStart && line.charAt(nameEnd - 1) <= ' ')
+						nameEnd--;
+
+					switch (HeaderNames.HEADERS.lookup(line, nameStart, nameEnd)) {
+					case HeaderNames.CONTENT_LENGTH:
+						contentLength = Long.parseLong(line.substring(colon + 1).trim());
+						break;
+					case HeaderNames.TRANSFER_ENCODING:
+						chunkedEncoding = line.substring(colon + 1).toLowerCase().contains("chunked");
+						break;
+					case HeaderNames.CONTENT_ENCODING:
+						httpResponseConnection.contentEncoding = line.substring(colon + 1).trim();
+						break;
+					case HeaderNames.CONTENT_TYPE:
+						httpResponseConnection.contentType = line.substring(colon + 1).trim();
+						break;
+					default:
+						break;
+					}
+				}
 
-				for (int j = 0; j < responseData.size(); ++j, prevChar = curChar) {
+				// HEAD responses and 1xx, 204 and 304 never carry a body
+				int responseCode = httpResponseConnection.responseCode;
+				HttpConnection httpRequestConnection = httpConnectionReqTable.get(acknowledgementNumber);
+				boolean hasBody = responseCode / 100 != 1 && responseCode != 204 && responseCode != 304
+						&& (httpRequestConnection == null || !httpRequestConnection.method.equals("HEAD"));
 
-					curChar = responseData.get(j);
-					singleLineBytes.add(responseData.get(j));
-					singleLine.append((char) curChar);
+				httpResponseConnection.responseStream = stream;
+				httpResponseConnection.bodyPosition = stream.position;
 
-					if (contentDataActive) {
+				if (!hasBody) {
+					httpResponseConnection.responseBodyLength = 0L;
+				} else if (chunkedEncoding) {
+					httpResponseConnection.chunkedEncoding = true;
+					httpResponseConnection.responseBodyLength = transferChunked(stream, null);
+				} else {
+					// A body cut short by the end of the capture is reported as is
+					httpResponseConnection.responseBodyLength = stream.skip(contentLength);
+				}
+				httpResponseConnection.lastByteTimestamp = stream.previousTimestamp();
 
-						contentData.add(responseData.get(j));
-						contentCounter += 1;
-						// End of content data
-						if (contentCounter >= contentDataLength) {
+				httpConnectionResTable.put(acknowledgementNumber, httpResponseConnection);
+			}
+		} catch (NumberFormatException e) {
+			// A status code, Content-Length or chunk size that is not a number
+			// ends this downlink, the responses before it are kept
+		}
+	}
 
-							HttpConnection temp = new HttpConnection();
-							temp.responseBodyLength = contentDataLength;
-							temp.responseData = contentData;
+	// Decodes a chunked body from the stream and returns its decoded length. The
+	// data is written to out, or only skipped when out is null.
+	static long transferChunked(ReassembledStream stream, OutputStream out) throws IOException {
 
-							temp.responseCode = contentResponseCode;
-							httpConnectionResTable.put(contentKey, temp);
+		long decodedLength = 0L;
 
-							contentCounter = 0L;
-							contentDataLength = 0L;
-							contentResponseCode = 0;
-							contentData = new ArrayList<Byte>();
+		String line;
+		while ((line = stream.readLine()) != null) {
 
-							contentDataActive = false;
-						}
+			// Chunk extensions are ignored
+			if (line.indexOf(";") != -1)
+				line = line.substring(0, line.indexOf(";"));
+			line = line.trim();
+			if (line.isEmpty())
+				continue;
 
-					}
+			long chunkSize = Long.parseLong(line, 16);
+			if (chunkSize == 0) {
+				// Skip the trailer up to the empty line
+				while ((line = stream.readLine()) != null && !line.isEmpty())
+					;
+				break;
+			}
 
-					if (prevChar == 13 && curChar == 10 && singleLine.length() == 2) {
-						isNewBlock = true;
-						// System.out.println(isNewBlock);
-						singleLine.delete(0, singleLine.length());
-					} else if (prevChar == 13 && curChar == 10) {
+			decodedLength += stream.copyTo(out, chunkSize);
+			// CRLF after the chunk data
+			stream.readLine();
+		}
 
-						if (headerEndWait && isNewBlock) {
-							contentDataActive = true;
+		return decodedLength;
+	}
 
-							// contentData.addAll(singleLineBytes);
-							// contentCounter += singleLineBytes.size();
-							contentData.clear();
+	// The first task reads the capture through the given view, which may
+	// still be filling; the ones after it get a view of the whole capture
+	static void runTasks(PacketView first, Options options) {
+		runTasks(first, options, null);
+	}
 
-							contentKey = httpResponseConnection.acknowledgementNumber;
-							// header has been crossed
-							headerEndWait = false;
-						}
-						String firstWord = "noSpace";
-						if (singleLine.indexOf(" ") != -1) {
-							firstWord = singleLine.substring(0, singleLine.indexOf(" "));
-							// if (chunkedEncoding)
-							// System.out.println("Chunk first word : " +
-							// firstWord);
-						}
+	// Runs the tasks in order over the capture. A task whose output is in the
+	// cache is replayed from there and does not take a view.
+	static void runTasks(PacketView first, Options options, ResultCache cache) {
 
-						if (chunkCounterActive) {
-							// -2 is to eliminate the \r\n in the end
-
-							if (chunkCounter < -2) {
-								String encodingValue = singleLine.substring(0, singleLine.length() - 2);
-								// System.out.println("value is : " +
-								// encodingValue);
-								chunkCounter = Long.parseLong(encodingValue, 16);
-								chunkedLength += chunkCounter;
-								if (chunkCounter == 0) {
-									// End of Chunk reached
-									// System.out.println("Total Length " +
-									// chunkedLength);
-									HttpConnection temp = httpConnectionResTable.get(chunkKey);
-									temp.responseBodyLength = chunkedLength;
-									httpConnectionResTable.put(chunkKey, temp);
-
-									chunkCounterActive = false;
-								} else
-									chunkCounterActive = true;
-
-							}
-						}
-						if (firstWord.equalsIgnoreCase("HTTP/1.1")) {
-							int firstSpace = singleLine.indexOf(" ") + 1;
-							// System.out.print(httpResponseConnection.acknowledgementNumber
-							// + " " + singleLine);
-							httpResponseConnection.responseCode = Integer.parseInt(
-									singleLine.substring(firstSpace, singleLine.indexOf(" ", firstSpace + 1)));
-
-							shouldStore = true;
-
-							// System.out.println(httpResponseConnection.acknowledgementNumber
-							// + " "
-							// + httpResponseConnection.responseCode);
-
-						} else if (firstWord.equalsIgnoreCase("Content-Length:")) {
-							int firstSpace = singleLine.indexOf(" ") + 1;
-							contentLength = Long.parseLong(singleLine.substring(firstSpace, singleLine.length() - 2));
-							headerEndWait = true;
-							contentDataLength = contentLength;
-							contentKey = httpResponseConnection.acknowledgementNumber;
-							contentResponseCode = httpResponseConnection.responseCode;
-
-							// System.out.println(
-							// "Response size : " + responseData.size() +
-							// "\tContent-Length : " + contentLength);
-
-						} else if (firstWord.equalsIgnoreCase("Transfer-Encoding:")) {
-							int firstSpace = singleLine.indexOf(" ") + 1;
-							if (singleLine.substring(firstSpace, singleLine.length() - 2).equals("chunked")) {
-								chunkedEncoding = true;
-
-								// System.out.println("chunked: ");
-							}
-
-						} else if (isNewBlock && singleLine.indexOf(" ") == -1 && chunkedEncoding) {
-							// This executes only at the start of chunk
-							chunkKey = httpResponseConnection.acknowledgementNumber;
-							String encodingValue = singleLine.substring(0, singleLine.length() - 2);
-							chunkedLength = 0;
-							// System.out
-							// .println("value is : " + encodingValue + "\t" +
-							// Long.parseLong(encodingValue, 16));
-							chunkCounter = Long.parseLong(encodingValue, 16);
-							chunkedLength += chunkCounter;
-							chunkCounterActive = true;
+		PacketView view = first;
 
-						}
-						isNewBlock = false;
-						singleLine.delete(0, singleLine.length());
-					}
-					// this is to keep track of chunk
-					if (chunkCounterActive)
-						chunkCounter--;
+		for (int task : options.tasks) {
+			if (cache != null && cache.replay(task, options))
+				continue;
 
-				}
-				if (shouldStore) {
+			if (view == null) {
+				first.readAll();
+				view = new PacketView(first.data, first.captureSize);
+			}
 
-					if (chunkedEncoding) {
-						httpResponseConnection.responseBodyLength = chunkedLength;
-					} else {
-						httpResponseConnection.responseBodyLength = contentLength;
-					}
-					httpConnectionResTable.put(httpResponseConnection.acknowledgementNumber, httpResponseConnection);
-				}
+			if (cache != null) {
+				final PacketView taskView = view;
+				cache.run(task, options, () -> runTask(task, taskView, options));
+			} else {
+				runTask(task, view, options);
 			}
 
+			view = null;
 		}
 
-		List<HttpConnection> outArray = new ArrayList<HttpConnection>();
-
-		for (Entry<Long, HttpConnection> entry : httpConnectionReqTable.entrySet()) {
+		first.readAll();
+	}
 
-			HttpConnection httpConnection = entry.getValue();
+	static void runTask(int task, PacketView view, Options options) {
 
-			long seqNum = entry.getKey();
+		if (task == 1) { // Task 1
+			task1(view, options);
+		}
 
-			if (httpConnectionResTable.containsKey(seqNum)) {
+		if (task == 2) { // Task 2
+			task2(view, options);
+		}
 
-				httpConnection.responseCode = httpConnectionResTable.get(seqNum).responseCode;
-				httpConnection.responseBodyLength = httpConnectionResTable.get(seqNum).responseBodyLength;
-				httpConnection.responseData = httpConnectionResTable.get(seqNum).responseData;
+		if (task == 3) { // Task 3
+			task3(view, options);
+		}
 
-				outArray.add(httpConnection);
-			}
+		if (task == 4) { // Task 4
+			task4(view, options);
+		}
 
+		if (task == 5) { // Heavy hitters
+			task5(view, options);
 		}
 
-		outArray.sort(HttpConnection.HttpConnectionComparator);
+		if (task == 6) { // Traffic time series
+			task6(view, options);
+		}
 
-		OutputStream out = new DataOutputStream(System.out);
-		try {
-			for (HttpConnection httpConnection : outArray) {
-				// System.out.println(httpConnection.responseData.size());
+		if (task == 7) { // TCP analytics
+			task7(view, options);
+		}
 
-				for (int i = 0; i < httpConnection.responseData.size(); ++i) {
-					out.write(httpConnection.responseData.get(i));
-				}
-				out.flush();
-				out.close();
-			}
-		} catch (IOException e) {
-			System.out.println("I/O exception");
+		if (task == 8) { // HTTP latency
+			task8(view, options);
 		}
 	}
 
 	public static void main(String[] args) throws IOException {
 
-		byte[] captureData = new byte[MAX_CAPTURE_SIZE];
-		int captureSize = 0;
-		captureSize = input(captureData);
+		Options options = Options.parse(args);
 
-		for (String s : args) {
-			if (Integer.parseInt(s) == 1) { // Task 1
-				task1(captureData, captureSize);
-			}
+		if (options.daemonPort != 0) {
+			new AnalysisDaemon(options.daemonPort, options.daemonThreads).serve();
+			return;
+		}
 
-			if (Integer.parseInt(s) == 2) { // Task 2
-				task2(captureData, captureSize);
-			}
+		if (options.searchKey != null) {
+			new CaptureCatalog(options.catalogDirectory).search(options.searchKey, options);
+			return;
+		}
 
-			if (Integer.parseInt(s) == 3) { // Task 3
-				task3(captureData, captureSize);
-			}
+		// Every task cached, the capture is not read at all unless it is also
+		// to be indexed
+		ResultCache cache = ResultCache.open(options);
+		if (cache != null && !options.index && cache.containsAll(options.tasks, options)) {
+			int replayed = 0;
+			while (replayed < options.tasks.size() && cache.replay(options.tasks.get(replayed), options))
+				replayed++;
+			if (replayed == options.tasks.size())
+				return;
+
+			// An entry evicted by another run in the meantime, the capture is
+			// read for the tasks from that one on
+			options.tasks = new ArrayList<Integer>(options.tasks.subList(replayed, options.tasks.size()));
+		}
 
-			if (Integer.parseInt(s) == 4) { // Task 4
-				task4(captureData, captureSize);
+		byte[] captureData = new byte[MAX_CAPTURE_SIZE];
+		InputStream in = options.inputFile != null ? new FileInputStream(options.inputFile) : System.in;
+
+		// The file or standard input is read ahead on a thread of its own, so
+		// the reader thread only copies
+		if (options.stream && options.readBuffers > 0) {
+			FileInputStream file = options.inputFile != null ? (FileInputStream) in
+					: new FileInputStream(FileDescriptor.in);
+			in = new ReadAheadInputStream(file.getChannel(), options.readBuffers, ReadAheadInputStream.BUFFER_SIZE);
+		}
+
+		PacketView first;
+		if (options.stream) {
+			// The first task decodes the capture while it is being read
+			CaptureReader reader = new CaptureReader(in, captureData, new Ipv4Defragmenter());
+			reader.start();
+			first = new PacketView(reader);
+		} else {
+			int captureSize = input(in, captureData);
+
+			// Fragmented datagrams are put back together before any task reads
+			// a transport header
+			captureSize = new Ipv4Defragmenter().defragment(captureData, captureSize);
+
+			first = new PacketView(captureData, captureSize);
+		}
+		runTasks(first, options, cache);
+
+		if (options.index) {
+			try {
+				new CaptureCatalog(options.catalogDirectory).index(options.inputFile,
+						new PacketView(first.data, first.captureSize), options);
+			} catch (IOException e) {
+				System.err.println("Error writing " + options.catalogDirectory + ": " + e.getMessage());
 			}
 		}
+
+		in.close();
 	}
 
 }
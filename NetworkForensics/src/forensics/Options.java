@@ -0,0 +1,251 @@
+package forensics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Command line arguments: the task numbers to run, optionally mixed with
+// --name or --name=value switches
+class Options {
+
+	static final int DEDUP_OFF = 0;
+	static final int DEDUP_REFERENCE = 1;
+	static final int DEDUP_SKIP = 2;
+
+	List<Integer> tasks;
+
+	// Read the capture from this file instead of standard input
+	String inputFile;
+
+	// Decode the capture in the first task while a second thread reads it,
+	// with this many read-ahead buffers in front of it, 0 for none
+	boolean stream;
+	int readBuffers;
+
+	// Serve requests on this loopback port instead of running once, 0 to run
+	// once, with this many requests at a time
+	int daemonPort;
+	int daemonThreads;
+
+	// task1: estimate the connection count with a HyperLogLog sketch of this
+	// precision, 0 counts exactly
+	int approximatePrecision;
+
+	// task1: count chunks of the capture on this many threads
+	int threads;
+
+	// task4: what to do with images whose content was already emitted
+	int dedup;
+
+	// task3: also write the transactions to this columnar export file
+	String exportFile;
+
+	// task5: number of heavy hitters to report, and the capture time in
+	// seconds between intermediate reports, 0 for a final report only
+	int topCount;
+	long topInterval;
+
+	// task3/task5: journal the flow table to this file every checkpointInterval
+	// capture records, and continue from its last checkpoint on resume
+	String checkpointFile;
+	int checkpointInterval;
+	boolean resume;
+
+	// task2/task3: add the DNS name of the server to each line
+	boolean resolveNames;
+
+	// task6: bucket length in seconds
+	long bucketLength;
+
+	// task3/task4: undo gzip and deflate Content-Encoding of the bodies
+	boolean decompress;
+
+	// task3/task4/task5: print the queue depths of the pipeline stages
+	boolean pipelineStats;
+
+	// task4: also write every image as a file in this directory; with dedup
+	// only the first copy of each content is written
+	String outputDirectory;
+	int writerThreads;
+
+	// task2: write the streams of each connection as files in this directory
+	// instead of to stdout
+	String streamDirectory;
+
+	// task1-task4: keep the output of a capture file in this directory, up
+	// to cacheSize bytes
+	String cacheDirectory;
+	long cacheSize;
+
+	// Archive search: with index, add the --input capture to the catalog in
+	// this directory, with searchKey, search the catalog for a URL or host
+	String catalogDirectory;
+	boolean index;
+	String searchKey;
+
+	Options() {
+		this.tasks = new ArrayList<Integer>();
+		this.inputFile = null;
+		this.stream = false;
+		this.readBuffers = 2;
+		this.daemonPort = 0;
+		this.daemonThreads = Runtime.getRuntime().availableProcessors();
+		this.approximatePrecision = 0;
+		this.threads = 1;
+		this.dedup = DEDUP_OFF;
+		this.exportFile = null;
+		this.topCount = 10;
+		this.topInterval = 0L;
+		this.checkpointFile = null;
+		this.checkpointInterval = 100000;
+		this.resume = false;
+		this.resolveNames = false;
+		this.bucketLength = 1L;
+		this.decompress = false;
+		this.pipelineStats = false;
+		this.outputDirectory = null;
+		this.writerThreads = 4;
+		this.streamDirectory = null;
+		this.cacheDirectory = null;
+		this.cacheSize = 256L << 20;
+		this.catalogDirectory = null;
+		this.index = false;
+		this.searchKey = null;
+	}
+
+	static Options parse(String[] args) {
+
+		Options options = new Options();
+
+		for (String s : args) {
+
+			if (!s.startsWith("--")) {
+				options.tasks.add(Integer.parseInt(s));
+				continue;
+			}
+
+			String name = s.substring(2);
+			String value = "";
+			if (name.indexOf("=") != -1) {
+				value = name.substring(name.indexOf("=") + 1);
+				name = name.substring(0, name.indexOf("="));
+			}
+
+			if (name.equals("input")) {
+				options.inputFile = value;
+			} else if (name.equals("stream")) {
+				options.stream = true;
+			} else if (name.equals("read-buffers")) {
+				options.readBuffers = Integer.parseInt(value);
+			} else if (name.equals("daemon")) {
+				options.daemonPort = value.isEmpty() ? AnalysisDaemon.DEFAULT_PORT : Integer.parseInt(value);
+			} else if (name.equals("daemon-threads")) {
+				options.daemonThreads = parseCount(s, value);
+			} else if (name.equals("approximate")) {
+				options.approximatePrecision = value.isEmpty() ? 12 : Integer.parseInt(value);
+			} else if (name.equals("threads")) {
+				options.threads = Integer.parseInt(value);
+			} else if (name.equals("dedup")) {
+				if (value.isEmpty() || value.equals("ref")) {
+					options.dedup = DEDUP_REFERENCE;
+				} else if (value.equals("skip")) {
+					options.dedup = DEDUP_SKIP;
+				} else {
+					throw new IllegalArgumentException("Unknown dedup mode: " + value);
+				}
+			} else if (name.equals("export")) {
+				options.exportFile = value;
+			} else if (name.equals("top")) {
+				options.topCount = Integer.parseInt(value);
+			} else if (name.equals("top-interval")) {
+				options.topInterval = Long.parseLong(value);
+			} else if (name.equals("checkpoint")) {
+				options.checkpointFile = value;
+			} else if (name.equals("checkpoint-interval")) {
+				options.checkpointInterval = parseCount(s, value);
+			} else if (name.equals("resume")) {
+				options.resume = true;
+			} else if (name.equals("resolve")) {
+				options.resolveNames = true;
+			} else if (name.equals("bucket")) {
+				options.bucketLength = parseDuration(value);
+			} else if (name.equals("decompress")) {
+				options.decompress = true;
+			} else if (name.equals("pipeline-stats")) {
+				options.pipelineStats = true;
+			} else if (name.equals("output-dir")) {
+				options.outputDirectory = value;
+			} else if (name.equals("writers")) {
+				options.writerThreads = parseCount(s, value);
+			} else if (name.equals("stream-dir")) {
+				options.streamDirectory = value;
+			} else if (name.equals("cache-dir")) {
+				options.cacheDirectory = value;
+			} else if (name.equals("cache-size")) {
+				options.cacheSize = parseSize(value);
+			} else if (name.equals("catalog")) {
+				options.catalogDirectory = value;
+			} else if (name.equals("index")) {
+				options.index = true;
+			} else if (name.equals("search")) {
+				options.searchKey = value;
+			} else {
+				throw new IllegalArgumentException("Unknown option: " + s);
+			}
+		}
+
+		if ((options.index || options.searchKey != null) && options.catalogDirectory == null)
+			throw new IllegalArgumentException("--index and --search need --catalog");
+		if (options.index && options.inputFile == null)
+			throw new IllegalArgumentException("--index needs --input");
+
+		return options;
+	}
+
+	// A number of things, at least one, for the option given as is
+	static int parseCount(String option, String value) {
+
+		int count = Integer.parseInt(value);
+		if (count <= 0)
+			throw new IllegalArgumentException("Must be positive: " + option);
+		return count;
+	}
+
+	// Bytes, with an optional k, m or g suffix
+	static long parseSize(String value) {
+
+		int shift = 0;
+		if (value.endsWith("g")) {
+			shift = 30;
+		} else if (value.endsWith("m")) {
+			shift = 20;
+		} else if (value.endsWith("k")) {
+			shift = 10;
+		}
+		if (shift != 0)
+			value = value.substring(0, value.length() - 1);
+
+		long size = Long.parseLong(value) << shift;
+		if (size <= 0)
+			throw new IllegalArgumentException("Size must be positive: " + value);
+		return size;
+	}
+
+	// Seconds, with an optional s, m or h suffix
+	static long parseDuration(String value) {
+
+		long unit = 1L;
+		if (value.endsWith("h")) {
+			unit = 3600L;
+		} else if (value.endsWith("m")) {
+			unit = 60L;
+		}
+		if (value.endsWith("h") || value.endsWith("m") || value.endsWith("s"))
+			value = value.substring(0, value.length() - 1);
+
+		long duration = Long.parseLong(value) * unit;
+		if (duration <= 0)
+			throw new IllegalArgumentException("Duration must be positive: " + value);
+		return duration;
+	}
+
+}
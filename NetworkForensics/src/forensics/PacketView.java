@@ -0,0 +1,273 @@
+package forensics;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import forensics.NetworkForensics.IpAddress;
+
+// Cursor over the records of a capture buffer. next() moves to the next
+// record and works out once where its headers are and whether they fit in
+// the record, the accessors then read the fields of the current record in
+// place. One view is reused for the whole capture, nothing is allocated per
+// packet.
+//
+//	PacketView view = new PacketView(captureData, captureSize);
+//	while (view.next())
+//		if (view.isTcp())
+//			... view.sourcePort(), view.sequenceNumber() ...
+//
+// A view over a CaptureReader takes the records from its ring while the
+// capture is still being read, captureSize is known once next() has returned
+// false.
+class PacketView {
+
+	static final int ETHERTYPE_IPV4 = 0x0800;
+	static final int PROTOCOL_TCP = 6;
+	static final int PROTOCOL_UDP = 17;
+
+	byte[] data;
+	int captureSize;
+	// pcap record headers are little endian, the packet headers big endian
+	ByteBuffer bigEndian;
+	ByteBuffer littleEndian;
+
+	// Start of the current frame, the i of the task loops, and of the next
+	int start;
+	int nextStart;
+	int capturedLength;
+	// End of the frame bytes that are really in the buffer
+	int end;
+
+	int ipStart;
+	int ipHeaderLength;
+	int transportStart;
+	int tcpHeaderLength;
+	int protocol;
+	boolean ipv4;
+	boolean transport;
+
+	CaptureReader reader;
+
+	PacketView(byte[] data, int captureSize) {
+		this.data = data;
+		this.captureSize = captureSize;
+		this.bigEndian = ByteBuffer.wrap(data);
+		this.littleEndian = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+		this.start = 0;
+		this.nextStart = NetworkForensics.PCAP_HEADER_LENGTH + NetworkForensics.PACKET_HEADER_LENGTH;
+		this.capturedLength = 0;
+		this.end = 0;
+		this.ipStart = 0;
+		this.ipHeaderLength = 0;
+		this.transportStart = 0;
+		this.tcpHeaderLength = 0;
+		this.protocol = 0;
+		this.ipv4 = false;
+		this.transport = false;
+		this.reader = null;
+	}
+
+	PacketView(CaptureReader reader) {
+		this(reader.captureData, 0);
+		this.reader = reader;
+	}
+
+	// Waits until the capture has been read, skipping the records not taken
+	// yet. The view then starts over at the first record.
+	void readAll() {
+
+		while (reader != null)
+			next();
+		seek(NetworkForensics.PCAP_HEADER_LENGTH + NetworkForensics.PACKET_HEADER_LENGTH);
+	}
+
+	// Moves to the record whose frame starts at the given offset, the next
+	// call to next() reads that record
+	void seek(int frameStart) {
+		this.nextStart = frameStart;
+	}
+
+	boolean next() {
+
+		if (reader != null) {
+			long slot = reader.ring.take();
+			if (slot == RecordRing.END) {
+				captureSize = reader.captureSize;
+				reader = null;
+				return false;
+			}
+			start = RecordRing.frameStart(slot);
+			capturedLength = littleEndian.getInt(start - 8);
+			nextStart = start + capturedLength + NetworkForensics.PACKET_HEADER_LENGTH;
+			end = (int) Math.min((long) start + capturedLength, RecordRing.end(slot));
+		} else {
+			start = nextStart;
+			if (start >= captureSize)
+				return false;
+
+			capturedLength = littleEndian.getInt(start - 8);
+			nextStart = start + capturedLength + NetworkForensics.PACKET_HEADER_LENGTH;
+			end = (int) Math.min((long) start + capturedLength, captureSize);
+		}
+
+		ipv4 = false;
+		transport = false;
+		protocol = 0;
+
+		if (end - start < NetworkForensics.ETHERNET_HEADER_LENGTH + 20
+				|| (bigEndian.getShort(start + 12) & 0xffff) != ETHERTYPE_IPV4)
+			return true;
+
+		ipStart = start + NetworkForensics.ETHERNET_HEADER_LENGTH;
+		ipHeaderLength = (data[ipStart] & 15) * 4;
+		transportStart = ipStart + ipHeaderLength;
+		protocol = Byte.toUnsignedInt(data[ipStart + 9]);
+		ipv4 = ipHeaderLength >= 20 && transportStart <= end;
+
+		if (ipv4 && protocol == PROTOCOL_TCP && transportStart + 20 <= end) {
+			tcpHeaderLength = (Byte.toUnsignedInt(data[transportStart + 12]) >> 4) * 4;
+			transport = true;
+		} else if (ipv4 && protocol == PROTOCOL_UDP && transportStart + 8 <= end) {
+			tcpHeaderLength = 0;
+			transport = true;
+		}
+
+		return true;
+	}
+
+	// Offset of the frame in the capture buffer
+	int start() {
+		return start;
+	}
+
+	// Offset of the frame of the following record
+	int nextStart() {
+		return nextStart;
+	}
+
+	long seconds() {
+		return littleEndian.getInt(start - 16) & 0xffffffffL;
+	}
+
+	long micros() {
+		return littleEndian.getInt(start - 12) & 0xffffffffL;
+	}
+
+	// Capture time in microseconds
+	long timestamp() {
+		return seconds() * 1000000L + micros();
+	}
+
+	int capturedLength() {
+		return capturedLength;
+	}
+
+	// Length of the packet on the wire, which a snap length may have cut
+	int wireLength() {
+		return littleEndian.getInt(start - 4);
+	}
+
+	int frameType() {
+		return end - start < NetworkForensics.ETHERNET_HEADER_LENGTH ? 0 : bigEndian.getShort(start + 12) & 0xffff;
+	}
+
+	boolean isIpv4() {
+		return ipv4;
+	}
+
+	boolean isTcp() {
+		return transport && protocol == PROTOCOL_TCP;
+	}
+
+	boolean isUdp() {
+		return transport && protocol == PROTOCOL_UDP;
+	}
+
+	int protocol() {
+		return protocol;
+	}
+
+	int ipStart() {
+		return ipStart;
+	}
+
+	int ipHeaderLength() {
+		return ipHeaderLength;
+	}
+
+	int ipTotalLength() {
+		return bigEndian.getShort(ipStart + 2) & 0xffff;
+	}
+
+	int sourceIp() {
+		return bigEndian.getInt(ipStart + 12);
+	}
+
+	int destinationIp() {
+		return bigEndian.getInt(ipStart + 16);
+	}
+
+	// For the places that keep the address, such as table keys
+	IpAddress sourceIpAddress() {
+		return ipAddress(ipStart + 12);
+	}
+
+	IpAddress destinationIpAddress() {
+		return ipAddress(ipStart + 16);
+	}
+
+	private IpAddress ipAddress(int offset) {
+		IpAddress ipAddress = new IpAddress();
+		ipAddress.firstByte = data[offset];
+		ipAddress.secondByte = data[offset + 1];
+		ipAddress.thirdByte = data[offset + 2];
+		ipAddress.fourthByte = data[offset + 3];
+		return ipAddress;
+	}
+
+	// TCP and UDP ports are at the same place
+	int sourcePort() {
+		return bigEndian.getShort(transportStart) & 0xffff;
+	}
+
+	int destinationPort() {
+		return bigEndian.getShort(transportStart + 2) & 0xffff;
+	}
+
+	long sequenceNumber() {
+		return bigEndian.getInt(transportStart + 4) & 0xffffffffL;
+	}
+
+	long acknowledgementNumber() {
+		return bigEndian.getInt(transportStart + 8) & 0xffffffffL;
+	}
+
+	int tcpHeaderLength() {
+		return tcpHeaderLength;
+	}
+
+	int tcpFlags() {
+		return Byte.toUnsignedInt(data[transportStart + 13]);
+	}
+
+	// Receive window as advertised, without the window scale
+	int window() {
+		return bigEndian.getShort(transportStart + 14) & 0xffff;
+	}
+
+	int payloadStart() {
+		return isUdp() ? transportStart + 8 : transportStart + tcpHeaderLength;
+	}
+
+	// As the IP header tells it, cut to the bytes the record holds, so that a
+	// snap length or a bad header never takes a reader past the frame
+	int payloadLength() {
+		int length;
+		if (isUdp())
+			length = (bigEndian.getShort(transportStart + 4) & 0xffff) - 8;
+		else
+			length = ipTotalLength() - ipHeaderLength - tcpHeaderLength;
+		return Math.max(0, Math.min(length, end - payloadStart()));
+	}
+
+}
@@ -0,0 +1,300 @@
+package forensics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Processing stages connected the way java.util.concurrent.Flow connects a
+// publisher to a subscriber, which Java 8 does not have. Every stage runs on
+// a thread of its own and hands items on in batches, so the cost of the
+// hand-off is paid once per batch. A stage requests at most capacity batches
+// ahead of what it has processed, and a stage with no outstanding demand waits
+// before emitting the next batch: a slow stage at the end throttles all the
+// ones before it instead of letting batches pile up.
+//
+//	source.subscribe(stage);
+//	stage.subscribe(sink);
+//	source.start();
+//	sink.await();
+class Pipeline {
+
+	interface Publisher<T> {
+		void subscribe(Subscriber<? super T> subscriber);
+	}
+
+	interface Subscriber<T> {
+		void onSubscribe(Subscription subscription);
+
+		void onNext(T item);
+
+		void onError(Throwable throwable);
+
+		void onComplete();
+	}
+
+	interface Subscription {
+		void request(long n);
+
+		void cancel();
+	}
+
+	// The publishing half of a stage: collects emitted items into batches and
+	// sends a batch downstream once there is demand for it
+	abstract static class Emitter<O> implements Publisher<List<O>> {
+
+		String name;
+		int batchSize;
+		Subscriber<? super List<O>> downstream;
+		// Batches requested and not yet sent, guarded by this
+		long demand;
+		boolean cancelled;
+		List<O> batch;
+
+		long batchesOut;
+		long itemsOut;
+		// Times a full batch had to wait for demand
+		long stalls;
+
+		Emitter(String name, int batchSize) {
+			this.name = name;
+			this.batchSize = batchSize;
+			this.downstream = null;
+			this.demand = 0L;
+			this.cancelled = false;
+			this.batch = new ArrayList<O>(batchSize);
+			this.batchesOut = 0L;
+			this.itemsOut = 0L;
+			this.stalls = 0L;
+		}
+
+		@Override
+		public void subscribe(Subscriber<? super List<O>> subscriber) {
+
+			this.downstream = subscriber;
+			subscriber.onSubscribe(new Subscription() {
+
+				@Override
+				public void request(long n) {
+					synchronized (Emitter.this) {
+						demand += n;
+						Emitter.this.notifyAll();
+					}
+				}
+
+				@Override
+				public void cancel() {
+					synchronized (Emitter.this) {
+						cancelled = true;
+						Emitter.this.notifyAll();
+					}
+				}
+
+			});
+		}
+
+		void emit(O item) throws InterruptedException {
+
+			batch.add(item);
+			if (batch.size() >= batchSize)
+				flush();
+		}
+
+		void flush() throws InterruptedException {
+
+			if (batch.isEmpty() || downstream == null)
+				return;
+
+			synchronized (this) {
+				if (demand == 0)
+					stalls++;
+				while (demand == 0 && !cancelled)
+					wait();
+				if (cancelled) {
+					batch.clear();
+					return;
+				}
+				demand--;
+			}
+
+			List<O> full = batch;
+			batch = new ArrayList<O>(batchSize);
+			batchesOut++;
+			itemsOut += full.size();
+			downstream.onNext(full);
+		}
+
+		void complete() throws InterruptedException {
+
+			flush();
+			if (downstream != null)
+				downstream.onComplete();
+		}
+
+		void fail(Throwable throwable) {
+
+			if (downstream != null)
+				downstream.onError(throwable);
+		}
+
+		static ThreadPoolExecutor executor(String name) {
+
+			return new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+					runnable -> {
+						Thread thread = new Thread(runnable, "pipeline-" + name);
+						thread.setDaemon(true);
+						return thread;
+					});
+		}
+
+	}
+
+	// First stage, produces its items from something other than a publisher
+	abstract static class Source<O> extends Emitter<O> {
+
+		Source(String name, int batchSize) {
+			super(name, batchSize);
+		}
+
+		abstract void produce() throws Exception;
+
+		void start() {
+
+			ThreadPoolExecutor executor = executor(name);
+			executor.execute(() -> {
+				try {
+					produce();
+					complete();
+				} catch (Throwable throwable) {
+					fail(throwable);
+				}
+			});
+			executor.shutdown();
+		}
+
+		String stats() {
+			return name + ": out " + batchesOut + " batches " + itemsOut + " items, " + stalls + " stalls";
+		}
+
+	}
+
+	// A stage that consumes batches of I and emits items of O. A stage that
+	// emits nothing, with no subscriber, ends the pipeline.
+	abstract static class Stage<I, O> extends Emitter<O> implements Subscriber<List<I>> {
+
+		int capacity;
+		// Received batches, and the marker that ends them
+		ArrayBlockingQueue<List<I>> queue;
+		List<I> end;
+		volatile Throwable failure;
+		Subscription upstream;
+		CountDownLatch finished;
+
+		long batchesIn;
+		long itemsIn;
+		int maxDepth;
+		long depthSum;
+
+		Stage(String name, int batchSize, int capacity) {
+			super(name, batchSize);
+			this.capacity = capacity;
+			this.queue = new ArrayBlockingQueue<List<I>>(capacity + 1);
+			this.end = new ArrayList<I>(0);
+			this.failure = null;
+			this.upstream = null;
+			this.finished = new CountDownLatch(1);
+			this.batchesIn = 0L;
+			this.itemsIn = 0L;
+			this.maxDepth = 0;
+			this.depthSum = 0L;
+		}
+
+		abstract void process(List<I> items) throws Exception;
+
+		// Called after the last batch, before the stage completes
+		void finish() throws Exception {
+		}
+
+		@Override
+		public void onSubscribe(Subscription subscription) {
+
+			this.upstream = subscription;
+			ThreadPoolExecutor executor = executor(name);
+			executor.execute(this::drain);
+			executor.shutdown();
+			subscription.request(capacity);
+		}
+
+		@Override
+		public void onNext(List<I> items) {
+
+			// Depth as the batch arrives, counting itself
+			int depth = queue.size() + 1;
+			maxDepth = Math.max(maxDepth, depth);
+			depthSum += depth;
+
+			if (!queue.offer(items))
+				throw new IllegalStateException(name + ": more batches than requested");
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			failure = throwable;
+			queue.offer(end);
+		}
+
+		@Override
+		public void onComplete() {
+			queue.offer(end);
+		}
+
+		private void drain() {
+
+			try {
+				for (List<I> items = queue.take(); items != end; items = queue.take()) {
+					batchesIn++;
+					itemsIn += items.size();
+					process(items);
+					upstream.request(1);
+				}
+
+				if (failure != null) {
+					fail(failure);
+				} else {
+					finish();
+					complete();
+				}
+			} catch (Throwable throwable) {
+				failure = throwable;
+				upstream.cancel();
+				fail(throwable);
+			} finally {
+				finished.countDown();
+			}
+		}
+
+		// Waits until the stage is done, and throws what failed in it or
+		// before it
+		void await() throws InterruptedException {
+
+			finished.await();
+			if (failure instanceof RuntimeException)
+				throw (RuntimeException) failure;
+			if (failure instanceof Error)
+				throw (Error) failure;
+			if (failure != null)
+				throw new RuntimeException(failure);
+		}
+
+		String stats() {
+			return name + ": in " + batchesIn + " batches " + itemsIn + " items, queue depth max " + maxDepth + "/"
+					+ capacity + " mean " + String.format("%.2f", batchesIn == 0 ? 0.0 : (double) depthSum / batchesIn)
+					+ ", out " + batchesOut + " batches " + itemsOut + " items, " + stalls + " stalls";
+		}
+
+	}
+
+}
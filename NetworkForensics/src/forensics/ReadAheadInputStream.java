@@ -0,0 +1,122 @@
+package forensics;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+
+// Reads a channel ahead of its consumer. A filler thread reads into one of a
+// few large direct buffers while the consumer copies out of another, so that
+// waiting on the disk or the pipe overlaps with the work done on the bytes
+// already read, and a run takes about the longer of the two instead of their
+// sum. A direct buffer is filled by the channel without the bounce copy a
+// heap buffer needs.
+//
+// Buffers go round between a free and a filled queue, one hand-off per
+// buffer. A record that straddles two buffers needs no care here: the
+// consumer copies into one contiguous capture array and only looks at records
+// whose bytes are all in.
+class ReadAheadInputStream extends InputStream {
+
+	static final int BUFFER_SIZE = 1 << 20;
+
+	ReadableByteChannel channel;
+	ArrayBlockingQueue<ByteBuffer> free;
+	ArrayBlockingQueue<ByteBuffer> filled;
+	// Marks the end of the channel in the filled queue
+	ByteBuffer end;
+	ByteBuffer current;
+	volatile IOException failure;
+	Thread thread;
+
+	ReadAheadInputStream(ReadableByteChannel channel, int bufferCount, int bufferSize) {
+
+		this.channel = channel;
+		this.free = new ArrayBlockingQueue<ByteBuffer>(bufferCount);
+		this.filled = new ArrayBlockingQueue<ByteBuffer>(bufferCount + 1);
+		for (int k = 0; k < bufferCount; ++k)
+			this.free.add(ByteBuffer.allocateDirect(bufferSize));
+		this.end = ByteBuffer.allocate(0);
+		this.current = null;
+		this.failure = null;
+
+		this.thread = new Thread(this::fill, "read-ahead");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	private void fill() {
+
+		try {
+			while (true) {
+
+				ByteBuffer buffer = free.take();
+				buffer.clear();
+
+				// A pipe hands out a little at a time, the buffer goes over
+				// once it is full or the channel has ended
+				int n = 0;
+				while (buffer.hasRemaining() && n != -1)
+					n = channel.read(buffer);
+
+				buffer.flip();
+				if (buffer.hasRemaining())
+					filled.put(buffer);
+				if (n == -1) {
+					filled.put(end);
+					return;
+				}
+			}
+		} catch (IOException e) {
+			failure = e;
+			filled.offer(end);
+		} catch (InterruptedException e) {
+			// Closed
+		}
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+
+		if (len == 0)
+			return 0;
+
+		while (current != end && (current == null || !current.hasRemaining())) {
+			if (current != null)
+				free.offer(current);
+			try {
+				current = filled.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+		}
+
+		if (current == end) {
+			if (failure != null)
+				throw failure;
+			return -1;
+		}
+
+		int n = Math.min(len, current.remaining());
+		current.get(b, off, n);
+		return n;
+	}
+
+	@Override
+	public int read() throws IOException {
+
+		byte[] b = new byte[1];
+		return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+	}
+
+	@Override
+	public void close() throws IOException {
+
+		thread.interrupt();
+		channel.close();
+	}
+
+}
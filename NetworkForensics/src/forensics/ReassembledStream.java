@@ -0,0 +1,276 @@
+package forensics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import forensics.NetworkForensics.Packet;
+
+// In-order view of one direction of a TCP connection. The payload bytes are
+// not copied, each segment points into the capture buffer.
+class ReassembledStream {
+
+	// Segments handed to the channel in one gathering write
+	static final int GATHER_SEGMENTS = 64;
+
+	byte[] captureData;
+	ByteScanner scanner;
+
+	int segmentCount;
+	int[] segmentStart;
+	int[] segmentLength;
+	long[] segmentPosition;
+	long[] segmentAcknowledgement;
+	// Capture time of the packet, in microseconds
+	long[] segmentTime;
+
+	long length;
+
+	// Cursor state
+	int segment;
+	int offset;
+	long position;
+
+	ReassembledStream(byte[] captureData, List<Packet> packets) {
+
+		this.captureData = captureData;
+		this.scanner = new ByteScanner(captureData);
+
+		List<Packet> sorted = new ArrayList<Packet>();
+		for (Packet packet : packets) {
+			if (packet.payloadLength > 0)
+				sorted.add(packet);
+		}
+
+		// Sequence numbers are compared relative to the first packet so that a
+		// wrap around 2^32 does not break the ordering
+		final long baseSequence = sorted.isEmpty() ? 0L : sorted.get(0).sequenceNumber;
+		sorted.sort((p1, p2) -> Integer.compare((int) (p1.sequenceNumber - baseSequence),
+				(int) (p2.sequenceNumber - baseSequence)));
+
+		this.segmentStart = new int[sorted.size()];
+		this.segmentLength = new int[sorted.size()];
+		this.segmentPosition = new long[sorted.size()];
+		this.segmentAcknowledgement = new long[sorted.size()];
+		this.segmentTime = new long[sorted.size()];
+		this.segmentCount = 0;
+		this.length = 0L;
+
+		long nextSequence = 0L;
+		for (Packet packet : sorted) {
+
+			long relativeSequence = (int) (packet.sequenceNumber - baseSequence);
+			long end = relativeSequence + packet.payloadLength;
+
+			if (segmentCount > 0 && end <= nextSequence) {
+				// Retransmission of data already in the stream
+				continue;
+			}
+
+			int overlap = 0;
+			if (segmentCount > 0 && relativeSequence < nextSequence)
+				overlap = (int) (nextSequence - relativeSequence);
+
+			segmentStart[segmentCount] = packet.payloadStart + overlap;
+			segmentLength[segmentCount] = packet.payloadLength - overlap;
+			segmentPosition[segmentCount] = length;
+			segmentAcknowledgement[segmentCount] = packet.acknowledgementNumber;
+			segmentTime[segmentCount] = packet.captureTime * 1000000L + packet.microOffset;
+			length += segmentLength[segmentCount];
+			segmentCount++;
+
+			nextSequence = end;
+		}
+
+		seek(0L);
+	}
+
+	// Shares the segments but has its own cursor, so that another thread can
+	// read the stream
+	ReassembledStream duplicate() {
+		return new ReassembledStream(this);
+	}
+
+	private ReassembledStream(ReassembledStream other) {
+		this.captureData = other.captureData;
+		this.scanner = other.scanner;
+		this.segmentCount = other.segmentCount;
+		this.segmentStart = other.segmentStart;
+		this.segmentLength = other.segmentLength;
+		this.segmentPosition = other.segmentPosition;
+		this.segmentAcknowledgement = other.segmentAcknowledgement;
+		this.segmentTime = other.segmentTime;
+		this.length = other.length;
+		seek(0L);
+	}
+
+	void seek(long newPosition) {
+
+		position = Math.min(newPosition, length);
+
+		// Last segment starting at or before the position
+		int low = 0;
+		int high = segmentCount - 1;
+		segment = 0;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (segmentPosition[mid] <= position) {
+				segment = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		offset = (int) (position - (segmentCount == 0 ? 0L : segmentPosition[segment]));
+		skipEmpty();
+	}
+
+	private void skipEmpty() {
+		while (segment < segmentCount && offset >= segmentLength[segment]) {
+			offset -= segmentLength[segment];
+			segment++;
+		}
+	}
+
+	boolean hasRemaining() {
+		return position < length;
+	}
+
+	long remaining() {
+		return length - position;
+	}
+
+	// Acknowledgement number of the packet that carries the next byte
+	long acknowledgementNumber() {
+		if (segment < segmentCount)
+			return segmentAcknowledgement[segment];
+		return segmentCount == 0 ? 0L : segmentAcknowledgement[segmentCount - 1];
+	}
+
+	// Capture time in microseconds of the packet that carries the next byte
+	long timestamp() {
+		if (segment < segmentCount)
+			return segmentTime[segment];
+		return segmentCount == 0 ? 0L : segmentTime[segmentCount - 1];
+	}
+
+	// Capture time in microseconds of the packet that carries the byte before
+	// the cursor, the last one read
+	long previousTimestamp() {
+		if (offset > 0 || segment == 0)
+			return timestamp();
+		return segmentTime[segment - 1];
+	}
+
+	int read() {
+
+		if (segment >= segmentCount)
+			return -1;
+
+		int value = Byte.toUnsignedInt(captureData[segmentStart[segment] + offset]);
+		offset++;
+		position++;
+		skipEmpty();
+		return value;
+	}
+
+	long skip(long count) {
+		long skipped = Math.min(count, remaining());
+		seek(position + skipped);
+		return skipped;
+	}
+
+	// Reads one CRLF terminated line, without the CRLF. Returns null at the end
+	// of the stream. The line end is searched for a word at a time within the
+	// segment, only a line that spans segments is pieced together.
+	String readLine() {
+
+		if (!hasRemaining())
+			return null;
+
+		StringBuilder spanned = null;
+
+		while (segment < segmentCount) {
+
+			int from = segmentStart[segment] + offset;
+			int to = segmentStart[segment] + segmentLength[segment];
+
+			// CR at the end of the previous segment, LF at the start of this one
+			if (spanned != null && spanned.charAt(spanned.length() - 1) == '\r' && captureData[from] == '\n') {
+				spanned.setLength(spanned.length() - 1);
+				advance(1);
+				return spanned.toString();
+			}
+
+			int lineEnd = scanner.indexOfLineEnd(from, to);
+			if (lineEnd != -1) {
+				advance(lineEnd + 2 - from);
+				if (spanned == null)
+					return new String(captureData, from, lineEnd - from, StandardCharsets.ISO_8859_1);
+				return appendLatin1(spanned, from, lineEnd).toString();
+			}
+
+			if (spanned == null)
+				spanned = new StringBuilder();
+			appendLatin1(spanned, from, to);
+			advance(to - from);
+		}
+		return spanned.toString();
+	}
+
+	private StringBuilder appendLatin1(StringBuilder line, int from, int to) {
+		for (int k = from; k < to; ++k)
+			line.append((char) Byte.toUnsignedInt(captureData[k]));
+		return line;
+	}
+
+	// Moves the cursor forward within the current segment
+	private void advance(int count) {
+		offset += count;
+		position += count;
+		skipEmpty();
+	}
+
+	// Writes the whole stream to the channel, GATHER_SEGMENTS segments per
+	// write call. The cursor does not move. The segments are wrapped, not
+	// copied, on the Java side, but they are heap buffers: a FileChannel
+	// copies them into a temporary direct buffer before every write, so each
+	// byte is still copied once in the JDK. What is saved is a write call
+	// per segment and a stream buffer of our own.
+	long writeTo(GatheringByteChannel channel) throws IOException {
+
+		ByteBuffer[] buffers = new ByteBuffer[Math.min(segmentCount, GATHER_SEGMENTS)];
+		long written = 0L;
+
+		for (int first = 0; first < segmentCount; first += buffers.length) {
+			int count = Math.min(buffers.length, segmentCount - first);
+			for (int k = 0; k < count; ++k)
+				buffers[k] = ByteBuffer.wrap(captureData, segmentStart[first + k], segmentLength[first + k]);
+			while (buffers[count - 1].hasRemaining())
+				written += channel.write(buffers, 0, count);
+		}
+		return written;
+	}
+
+	// Writes the next count bytes straight from the capture buffer
+	long copyTo(OutputStream out, long count) throws IOException {
+
+		long copied = 0L;
+		while (copied < count && segment < segmentCount) {
+			int available = segmentLength[segment] - offset;
+			int length = (int) Math.min(available, count - copied);
+			if (out != null)
+				out.write(captureData, segmentStart[segment] + offset, length);
+			copied += length;
+			offset += length;
+			position += length;
+			skipEmpty();
+		}
+		return copied;
+	}
+
+}
@@ -0,0 +1,107 @@
+package forensics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Single producer, single consumer ring of capture records, from the thread
+// that reads the capture to the one that decodes it. A slot holds the frame
+// offset of a record and the end of the bytes that are in for it, the bytes
+// themselves stay in the capture buffer.
+//
+// The only shared state is the two sequence counters. The producer fills a
+// slot and then publishes it with a lazySet of tail, a release store; the
+// consumer reads tail with a volatile load, which acquires the slot and the
+// record bytes written before it. head goes back the same way to free the
+// slots. Each side keeps a cached copy of the other's counter and only reads
+// the shared one when the cached value says the ring is full or empty. No
+// locks are taken and nothing is allocated per record.
+class RecordRing {
+
+	static final long END = -1L;
+	// Yields before a waiting side starts to park
+	static final int SPINS = 256;
+	static final long PARK_NANOS = 10000L;
+
+	long[] slots;
+	int mask;
+
+	// Next slot to fill, written by the producer only
+	AtomicLong tail;
+	long cachedHead;
+	// Next slot to take, written by the consumer only
+	AtomicLong head;
+	long cachedTail;
+
+	// Times a side found the ring full or empty, for tuning the size
+	long fullCount;
+	long emptyCount;
+
+	RecordRing(int capacity) {
+
+		int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+		this.slots = new long[size];
+		this.mask = size - 1;
+		this.tail = new AtomicLong();
+		this.cachedHead = 0L;
+		this.head = new AtomicLong();
+		this.cachedTail = 0L;
+		this.fullCount = 0L;
+		this.emptyCount = 0L;
+	}
+
+	// Frame offset and end of a record in one slot
+	static long slot(int frameStart, int end) {
+		return ((long) frameStart << 32) | (end & 0xffffffffL);
+	}
+
+	static int frameStart(long slot) {
+		return (int) (slot >>> 32);
+	}
+
+	static int end(long slot) {
+		return (int) slot;
+	}
+
+	// Producer side
+	void put(long value) {
+
+		long position = tail.get();
+		if (position - cachedHead == slots.length) {
+			fullCount++;
+			for (int spins = 0; position - (cachedHead = head.get()) == slots.length; ++spins)
+				idle(spins);
+		}
+
+		slots[(int) position & mask] = value;
+		tail.lazySet(position + 1);
+	}
+
+	// Consumer side, END once the producer has closed the ring
+	long take() {
+
+		long position = head.get();
+		if (position == cachedTail) {
+			emptyCount++;
+			for (int spins = 0; position == (cachedTail = tail.get()); ++spins)
+				idle(spins);
+		}
+
+		long value = slots[(int) position & mask];
+		head.lazySet(position + 1);
+		return value;
+	}
+
+	void close() {
+		put(END);
+	}
+
+	private static void idle(int spins) {
+
+		if (spins < SPINS) {
+			Thread.yield();
+		} else {
+			LockSupport.parkNanos(PARK_NANOS);
+		}
+	}
+
+}
@@ -0,0 +1,252 @@
+package forensics;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+// Output of task1 to task4 kept in a directory, so that running a task again
+// on the same capture file streams the stored output instead of reading the
+// capture. An entry is keyed by a fingerprint of the file, its size, its
+// modification time and an XXH64 of SAMPLE_BLOCKS blocks spread over it, and
+// by the task and the options that change its output.
+//
+// Entries are files named after the key. A hit sets the modification time of
+// its file, and after a store the least recently used entries are deleted
+// until the directory is under its size cap. A task that writes files of its
+// own, or the checkpoint, is not cached since a hit would skip them. Only the
+// standard output is stored, diagnostics on standard error are not replayed.
+class ResultCache {
+
+	static final int SAMPLE_BLOCKS = 16;
+	static final int BLOCK_SIZE = 4096;
+	static final String SUFFIX = ".out";
+
+	File directory;
+	long capacity;
+	String fingerprint;
+
+	ResultCache(File directory, long capacity, String fingerprint) {
+		this.directory = directory;
+		this.capacity = capacity;
+		this.fingerprint = fingerprint;
+	}
+
+	// The cache for the capture file of the options, null without
+	// --cache-dir or when the capture comes from standard input
+	static ResultCache open(Options options) throws IOException {
+
+		if (options.cacheDirectory == null || options.inputFile == null)
+			return null;
+
+		File directory = new File(options.cacheDirectory);
+		directory.mkdirs();
+		return new ResultCache(directory, options.cacheSize, fingerprint(new File(options.inputFile)));
+	}
+
+	static String fingerprint(File file) throws IOException {
+
+		try (RandomAccessFile capture = new RandomAccessFile(file, "r")) {
+
+			long size = capture.length();
+			byte[] samples;
+
+			// Small files are hashed whole, others at evenly spaced blocks that
+			// include the first and the last
+			if (size <= (long) SAMPLE_BLOCKS * BLOCK_SIZE) {
+				samples = new byte[(int) size];
+				capture.readFully(samples);
+			} else {
+				samples = new byte[SAMPLE_BLOCKS * BLOCK_SIZE];
+				long step = (size - BLOCK_SIZE) / (SAMPLE_BLOCKS - 1);
+				for (int block = 0; block < SAMPLE_BLOCKS; ++block) {
+					capture.seek(block * step);
+					capture.readFully(samples, block * BLOCK_SIZE, BLOCK_SIZE);
+				}
+			}
+
+			return size + " " + file.lastModified() + " "
+					+ Long.toHexString(XxHash64.hash(samples, 0, samples.length, 0L));
+		}
+	}
+
+	// The options each task's output depends on, null for a task not cached
+	static String taskKey(int task, Options options) {
+
+		switch (task) {
+		case 1:
+			return "1 approximate=" + options.approximatePrecision;
+		case 2:
+			if (options.streamDirectory != null)
+				return null;
+			return "2 resolve=" + options.resolveNames;
+		case 3:
+			if (options.exportFile != null || options.checkpointFile != null)
+				return null;
+			return "3 resolve=" + options.resolveNames + " decompress=" + options.decompress;
+		case 4:
+			if (options.outputDirectory != null)
+				return null;
+			return "4 dedup=" + options.dedup + " decompress=" + options.decompress;
+		default:
+			return null;
+		}
+	}
+
+	File entry(String taskKey) {
+
+		byte[] key = (fingerprint + " " + taskKey).getBytes(StandardCharsets.UTF_8);
+		return new File(directory, String.format("%016x", XxHash64.hash(key, 0, key.length, 0L)) + SUFFIX);
+	}
+
+	// True when there are tasks and every one has an entry
+	boolean containsAll(List<Integer> tasks, Options options) {
+
+		if (tasks.isEmpty())
+			return false;
+
+		for (int task : tasks) {
+			String taskKey = taskKey(task, options);
+			if (taskKey == null || !entry(taskKey).isFile())
+				return false;
+		}
+		return true;
+	}
+
+	// Writes the stored output of the task to System.out, false on a miss
+	boolean replay(int task, Options options) {
+
+		String taskKey = taskKey(task, options);
+		if (taskKey == null)
+			return false;
+
+		File file = entry(taskKey);
+		if (!file.isFile())
+			return false;
+
+		System.out.flush();
+		try {
+			Files.copy(file.toPath(), System.out);
+		} catch (IOException e) {
+			// Evicted by another run in the meantime
+			return false;
+		}
+		System.out.flush();
+		file.setLastModified(System.currentTimeMillis());
+		return true;
+	}
+
+	// Runs the task with its output also going to a new entry
+	void run(int task, Options options, Runnable runTask) {
+
+		String taskKey = taskKey(task, options);
+		if (taskKey == null) {
+			runTask.run();
+			return;
+		}
+
+		File file = entry(taskKey);
+		File partial = new File(directory, file.getName() + ".partial");
+		PrintStream out = System.out;
+		out.flush();
+
+		TeeOutputStream tee;
+		try {
+			tee = new TeeOutputStream(out, new BufferedOutputStream(new FileOutputStream(partial)));
+		} catch (IOException e) {
+			System.err.println("Error writing " + partial + ": " + e.getMessage());
+			runTask.run();
+			return;
+		}
+
+		System.setOut(new PrintStream(tee, false));
+		try {
+			runTask.run();
+			System.out.flush();
+		} finally {
+			System.setOut(out);
+			tee.close();
+		}
+
+		// Renamed only once complete, a failed run leaves no entry
+		if (tee.failure == null && partial.renameTo(file))
+			evict();
+		partial.delete();
+	}
+
+	// Deletes the least recently used entries until the cache fits
+	void evict() {
+
+		File[] entries = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+		if (entries == null)
+			return;
+
+		long size = 0L;
+		for (File file : entries)
+			size += file.length();
+
+		Arrays.sort(entries, Comparator.comparingLong(File::lastModified));
+		for (int k = 0; k < entries.length && size > capacity; ++k) {
+			size -= entries[k].length();
+			entries[k].delete();
+		}
+	}
+
+	// Copies the task output to the entry; an entry that cannot be written is
+	// dropped while the output goes on
+	static class TeeOutputStream extends OutputStream {
+
+		OutputStream out;
+		OutputStream entry;
+		IOException failure;
+
+		TeeOutputStream(OutputStream out, OutputStream entry) {
+			this.out = out;
+			this.entry = entry;
+			this.failure = null;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			if (failure == null) {
+				try {
+					entry.write(b, off, len);
+				} catch (IOException e) {
+					failure = e;
+				}
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		// Closes the entry only, the output stays open
+		@Override
+		public void close() {
+			try {
+				entry.close();
+			} catch (IOException e) {
+				if (failure == null)
+					failure = e;
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,117 @@
+package forensics;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Space-saving top-k summary (Metwally et al. 2005) with weighted updates.
+// At most capacity keys are monitored. A new key takes over the counter with
+// the smallest count, and remembers that count as its possible overestimate.
+// The counters form a min-heap so that the smallest one is found in O(1).
+class SpaceSaving {
+
+	int capacity;
+	int size;
+	String[] keys;
+	long[] counts;
+	long[] errors;
+	Map<String, Integer> heapIndex;
+
+	SpaceSaving(int capacity) {
+		this.capacity = capacity;
+		this.size = 0;
+		this.keys = new String[capacity];
+		this.counts = new long[capacity];
+		this.errors = new long[capacity];
+		this.heapIndex = new HashMap<String, Integer>();
+	}
+
+	void add(String key, long weight) {
+
+		Integer index = heapIndex.get(key);
+
+		if (index == null) {
+			if (size < capacity) {
+				// A new leaf, which may be smaller than its parents
+				index = size++;
+				errors[index] = 0L;
+				counts[index] = weight;
+				keys[index] = key;
+				heapIndex.put(key, index);
+				siftUp(index);
+				return;
+			} else {
+				// Evict the smallest counter, the root of the heap
+				index = 0;
+				heapIndex.remove(keys[0]);
+				errors[0] = counts[0];
+			}
+			keys[index] = key;
+			heapIndex.put(key, index);
+		}
+
+		counts[index] += weight;
+		siftDown(index);
+	}
+
+	private void siftUp(int index) {
+
+		while (index > 0) {
+			int parent = (index - 1) / 2;
+			if (counts[parent] <= counts[index])
+				return;
+			swap(index, parent);
+			index = parent;
+		}
+	}
+
+	private void siftDown(int index) {
+
+		while (true) {
+			int smallest = index;
+			int left = 2 * index + 1;
+			int right = left + 1;
+			if (left < size && counts[left] < counts[smallest])
+				smallest = left;
+			if (right < size && counts[right] < counts[smallest])
+				smallest = right;
+			if (smallest == index)
+				return;
+			swap(index, smallest);
+			index = smallest;
+		}
+	}
+
+	private void swap(int a, int b) {
+
+		String key = keys[a];
+		keys[a] = keys[b];
+		keys[b] = key;
+
+		long count = counts[a];
+		counts[a] = counts[b];
+		counts[b] = count;
+
+		long error = errors[a];
+		errors[a] = errors[b];
+		errors[b] = error;
+
+		heapIndex.put(keys[a], a);
+		heapIndex.put(keys[b], b);
+	}
+
+	// Indexes of the k largest counters, largest first
+	int[] top(int k) {
+
+		Integer[] order = new Integer[size];
+		for (int index = 0; index < size; ++index)
+			order[index] = index;
+		Arrays.sort(order, (a, b) -> Long.compare(counts[b], counts[a]));
+
+		int[] top = new int[Math.min(k, size)];
+		for (int rank = 0; rank < top.length; ++rank)
+			top[rank] = order[rank];
+		return top;
+	}
+
+}
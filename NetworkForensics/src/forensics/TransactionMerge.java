@@ -0,0 +1,93 @@
+package forensics;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import forensics.NetworkForensics.HttpConnection;
+
+// Merges runs of transactions, each already in request time order, into one
+// sequence in that order. A binary heap holds the index of every run that is
+// not used up, keyed on the time of its head as one packed microsecond count.
+// Equal times go to the earlier run, so the result is the one a stable sort of
+// the runs laid end to end gives. Only the heads are compared and nothing is
+// copied, the first transaction is out after building the heap.
+class TransactionMerge implements Iterator<HttpConnection> {
+
+	List<List<HttpConnection>> runs;
+	int[] heap;
+	int heapSize;
+	// Next transaction of each run and its time
+	int[] positions;
+	long[] heads;
+
+	TransactionMerge(List<List<HttpConnection>> runs) {
+
+		this.runs = runs;
+		this.heap = new int[runs.size()];
+		this.heapSize = 0;
+		this.positions = new int[runs.size()];
+		this.heads = new long[runs.size()];
+
+		for (int run = 0; run < runs.size(); ++run) {
+			if (runs.get(run).isEmpty())
+				continue;
+			heads[run] = runs.get(run).get(0).timestamp();
+			heap[heapSize++] = run;
+		}
+		for (int k = heapSize / 2 - 1; k >= 0; --k)
+			siftDown(k);
+	}
+
+	// Each iteration merges the runs again from the start
+	static Iterable<HttpConnection> of(List<List<HttpConnection>> runs) {
+		return () -> new TransactionMerge(runs);
+	}
+
+	@Override
+	public boolean hasNext() {
+		return heapSize > 0;
+	}
+
+	@Override
+	public HttpConnection next() {
+
+		if (heapSize == 0)
+			throw new NoSuchElementException();
+
+		int run = heap[0];
+		List<HttpConnection> transactions = runs.get(run);
+		HttpConnection httpConnection = transactions.get(positions[run]++);
+
+		if (positions[run] < transactions.size()) {
+			heads[run] = transactions.get(positions[run]).timestamp();
+		} else {
+			heap[0] = heap[--heapSize];
+		}
+		siftDown(0);
+
+		return httpConnection;
+	}
+
+	private boolean before(int run1, int run2) {
+		return heads[run1] < heads[run2] || (heads[run1] == heads[run2] && run1 < run2);
+	}
+
+	private void siftDown(int k) {
+
+		int run = heap[k];
+		while (true) {
+			int child = 2 * k + 1;
+			if (child >= heapSize)
+				break;
+			if (child + 1 < heapSize && before(heap[child + 1], heap[child]))
+				child++;
+			if (!before(heap[child], run))
+				break;
+			heap[k] = heap[child];
+			k = child;
+		}
+		heap[k] = run;
+	}
+
+}
@@ -0,0 +1,164 @@
+package forensics;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+// Reads the files written by TransactionWriter one batch at a time. Columns
+// are exposed as arrays so that analytics code can scan them directly.
+//
+//	TransactionReader reader = new TransactionReader(new FileInputStream(path));
+//	while (reader.nextBatch())
+//		for (int row = 0; row < reader.rows; ++row)
+//			... reader.host(row), reader.bodyLength[row] ...
+public class TransactionReader implements Closeable {
+
+	DataInputStream in;
+
+	public int rows;
+	// Microseconds since the epoch
+	public long[] requestTime;
+	public long[] responseTime;
+	public int[] clientIp;
+	public int[] clientPort;
+	public int[] serverIp;
+	public int[] serverPort;
+	public int[] method;
+	public int[] url;
+	public int[] host;
+	public int[] status;
+	public long[] bodyLength;
+
+	// Strings of the current batch, indexed by the method, url and host ids
+	public String[] dictionary;
+
+	public TransactionReader(InputStream stream) throws IOException {
+
+		this.in = new DataInputStream(new BufferedInputStream(stream, 1 << 16));
+		if (in.readInt() != TransactionWriter.MAGIC)
+			throw new IOException("Not a transaction export file");
+		int version = in.readInt();
+		if (version != TransactionWriter.VERSION)
+			throw new IOException("Unsupported transaction export version " + version);
+
+		this.rows = 0;
+		allocate(TransactionWriter.BATCH_SIZE);
+	}
+
+	private void allocate(int capacity) {
+		requestTime = new long[capacity];
+		responseTime = new long[capacity];
+		clientIp = new int[capacity];
+		clientPort = new int[capacity];
+		serverIp = new int[capacity];
+		serverPort = new int[capacity];
+		method = new int[capacity];
+		url = new int[capacity];
+		host = new int[capacity];
+		status = new int[capacity];
+		bodyLength = new long[capacity];
+	}
+
+	// Loads the next batch, false once the end marker is reached
+	public boolean nextBatch() throws IOException {
+
+		rows = in.readInt();
+		if (rows == 0)
+			return false;
+		if (rows > requestTime.length)
+			allocate(rows);
+
+		dictionary = new String[in.readInt()];
+		for (int id = 0; id < dictionary.length; ++id) {
+			byte[] bytes = new byte[in.readInt()];
+			in.readFully(bytes);
+			dictionary[id] = new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		requestTime[0] = in.readLong();
+		for (int row = 1; row < rows; ++row)
+			requestTime[row] = requestTime[row - 1] + readVarLong();
+		for (int row = 0; row < rows; ++row)
+			responseTime[row] = requestTime[row] + readVarLong();
+
+		for (int row = 0; row < rows; ++row)
+			clientIp[row] = in.readInt();
+		for (int row = 0; row < rows; ++row)
+			clientPort[row] = in.readUnsignedShort();
+		for (int row = 0; row < rows; ++row)
+			serverIp[row] = in.readInt();
+		for (int row = 0; row < rows; ++row)
+			serverPort[row] = in.readUnsignedShort();
+		for (int row = 0; row < rows; ++row)
+			method[row] = in.readInt();
+		for (int row = 0; row < rows; ++row)
+			url[row] = in.readInt();
+		for (int row = 0; row < rows; ++row)
+			host[row] = in.readInt();
+		for (int row = 0; row < rows; ++row)
+			status[row] = in.readUnsignedShort();
+		for (int row = 0; row < rows; ++row)
+			bodyLength[row] = in.readLong();
+
+		return true;
+	}
+
+	private long readVarLong() throws IOException {
+
+		long zigzag = 0L;
+		for (int shift = 0;; shift += 7) {
+			int b = in.readUnsignedByte();
+			zigzag |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0)
+				break;
+			if (shift > 63)
+				throw new EOFException("Malformed varint");
+		}
+		return (zigzag >>> 1) ^ -(zigzag & 1);
+	}
+
+	public String method(int row) {
+		return dictionary[method[row]];
+	}
+
+	public String url(int row) {
+		return dictionary[url[row]];
+	}
+
+	public String host(int row) {
+		return dictionary[host[row]];
+	}
+
+	public static String ipToString(int ip) {
+		return (ip >>> 24) + "." + ((ip >>> 16) & 0xff) + "." + ((ip >>> 8) & 0xff) + "." + (ip & 0xff);
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+	// Prints an export file in the task3 line format followed by the columns
+	// that task3 does not show
+	public static void main(String[] args) throws IOException {
+
+		try (TransactionReader reader = new TransactionReader(new FileInputStream(args[0]))) {
+			while (reader.nextBatch()) {
+				for (int row = 0; row < reader.rows; ++row) {
+					System.out.print(reader.url(row).toLowerCase() + " " + reader.host(row).toLowerCase() + " "
+							+ reader.status[row] + " " + reader.bodyLength[row] + " " + reader.method(row) + " "
+							+ ipToString(reader.clientIp[row]) + " " + reader.clientPort[row] + " "
+							+ ipToString(reader.serverIp[row]) + " " + reader.serverPort[row] + " "
+							+ reader.requestTime[row] + " " + (reader.responseTime[row] - reader.requestTime[row])
+							+ "\n");
+				}
+			}
+		}
+	}
+
+}
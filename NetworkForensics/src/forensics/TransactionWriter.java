@@ -0,0 +1,172 @@
+package forensics;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import forensics.NetworkForensics.HttpConnection;
+import forensics.NetworkForensics.IpAddress;
+
+// Columnar export of HTTP transactions, read back with TransactionReader.
+//
+// File: magic, version, batches, and a batch with zero rows at the end.
+// Batch: row count, then the string dictionary of the batch (count, then
+// length and UTF-8 bytes per entry), then one column after the other:
+//   request time     first value as a long, then zigzag varint deltas (us)
+//   response delay   zigzag varint, response time minus request time (us)
+//   client ip        int          client port    unsigned short
+//   server ip        int          server port    unsigned short
+//   method, url, host             int dictionary ids
+//   status           unsigned short
+//   body length      long
+// All fixed width values are big endian.
+class TransactionWriter implements Closeable {
+
+	static final int MAGIC = 0x4e465458; // "NFTX"
+	static final int VERSION = 1;
+	static final int BATCH_SIZE = 4096;
+
+	DataOutputStream out;
+
+	int rows;
+	long[] requestTime;
+	long[] responseTime;
+	int[] clientIp;
+	int[] clientPort;
+	int[] serverIp;
+	int[] serverPort;
+	int[] method;
+	int[] url;
+	int[] host;
+	int[] status;
+	long[] bodyLength;
+
+	Map<String, Integer> dictionaryIds;
+	List<String> dictionary;
+
+	TransactionWriter(OutputStream stream) throws IOException {
+
+		this.out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+		this.out.writeInt(MAGIC);
+		this.out.writeInt(VERSION);
+
+		this.rows = 0;
+		this.requestTime = new long[BATCH_SIZE];
+		this.responseTime = new long[BATCH_SIZE];
+		this.clientIp = new int[BATCH_SIZE];
+		this.clientPort = new int[BATCH_SIZE];
+		this.serverIp = new int[BATCH_SIZE];
+		this.serverPort = new int[BATCH_SIZE];
+		this.method = new int[BATCH_SIZE];
+		this.url = new int[BATCH_SIZE];
+		this.host = new int[BATCH_SIZE];
+		this.status = new int[BATCH_SIZE];
+		this.bodyLength = new long[BATCH_SIZE];
+		this.dictionaryIds = new HashMap<String, Integer>();
+		this.dictionary = new ArrayList<String>();
+	}
+
+	static int toInt(IpAddress ip) {
+		return (Byte.toUnsignedInt(ip.firstByte) << 24) | (Byte.toUnsignedInt(ip.secondByte) << 16)
+				| (Byte.toUnsignedInt(ip.thirdByte) << 8) | Byte.toUnsignedInt(ip.fourthByte);
+	}
+
+	private int dictionaryId(String value) {
+
+		Integer id = dictionaryIds.get(value);
+		if (id == null) {
+			id = dictionary.size();
+			dictionary.add(value);
+			dictionaryIds.put(value, id);
+		}
+		return id;
+	}
+
+	void add(HttpConnection httpConnection) throws IOException {
+
+		requestTime[rows] = httpConnection.captureTime * 1000000L + httpConnection.microOffset;
+		responseTime[rows] = httpConnection.responseTimestamp;
+		clientIp[rows] = toInt(httpConnection.connection.sourceIp);
+		clientPort[rows] = httpConnection.connection.sourcePort;
+		serverIp[rows] = toInt(httpConnection.connection.destinationIp);
+		serverPort[rows] = httpConnection.connection.destinationPort;
+		method[rows] = dictionaryId(httpConnection.method);
+		url[rows] = dictionaryId(httpConnection.requestedUrl);
+		host[rows] = dictionaryId(httpConnection.hostname);
+		status[rows] = httpConnection.responseCode;
+		bodyLength[rows] = httpConnection.responseBodyLength;
+
+		if (++rows == BATCH_SIZE)
+			writeBatch();
+	}
+
+	private void writeBatch() throws IOException {
+
+		if (rows == 0)
+			return;
+
+		out.writeInt(rows);
+
+		out.writeInt(dictionary.size());
+		for (String value : dictionary) {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+
+		out.writeLong(requestTime[0]);
+		for (int row = 1; row < rows; ++row)
+			writeVarLong(requestTime[row] - requestTime[row - 1]);
+		for (int row = 0; row < rows; ++row)
+			writeVarLong(responseTime[row] - requestTime[row]);
+
+		for (int row = 0; row < rows; ++row)
+			out.writeInt(clientIp[row]);
+		for (int row = 0; row < rows; ++row)
+			out.writeShort(clientPort[row]);
+		for (int row = 0; row < rows; ++row)
+			out.writeInt(serverIp[row]);
+		for (int row = 0; row < rows; ++row)
+			out.writeShort(serverPort[row]);
+		for (int row = 0; row < rows; ++row)
+			out.writeInt(method[row]);
+		for (int row = 0; row < rows; ++row)
+			out.writeInt(url[row]);
+		for (int row = 0; row < rows; ++row)
+			out.writeInt(host[row]);
+		for (int row = 0; row < rows; ++row)
+			out.writeShort(status[row]);
+		for (int row = 0; row < rows; ++row)
+			out.writeLong(bodyLength[row]);
+
+		rows = 0;
+		dictionary.clear();
+		dictionaryIds.clear();
+	}
+
+	// Zigzag encoded so that small negative deltas stay short as well
+	private void writeVarLong(long value) throws IOException {
+
+		long zigzag = (value << 1) ^ (value >> 63);
+		while ((zigzag & ~0x7fL) != 0) {
+			out.writeByte((int) ((zigzag & 0x7f) | 0x80));
+			zigzag >>>= 7;
+		}
+		out.writeByte((int) zigzag);
+	}
+
+	@Override
+	public void close() throws IOException {
+		writeBatch();
+		out.writeInt(0);
+		out.close();
+	}
+
+}
@@ -0,0 +1,81 @@
+package forensics;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// XXH64 of a byte range, as specified by the xxHash reference
+// implementation: four lanes over 32 byte stripes, then the tail a word, an
+// int and a byte at a time, and a final avalanche.
+class XxHash64 {
+
+	static final long PRIME1 = 0x9E3779B185EBCA87L;
+	static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+	static final long PRIME3 = 0x165667B19E3779F9L;
+	static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+	static final long PRIME5 = 0x27D4EB2F165667C5L;
+
+	static long hash(byte[] data, int offset, int length, long seed) {
+
+		ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+		int end = offset + length;
+		int p = offset;
+		long h;
+
+		if (length >= 32) {
+			long v1 = seed + PRIME1 + PRIME2;
+			long v2 = seed + PRIME2;
+			long v3 = seed;
+			long v4 = seed - PRIME1;
+
+			for (; p <= end - 32; p += 32) {
+				v1 = round(v1, buffer.getLong(p));
+				v2 = round(v2, buffer.getLong(p + 8));
+				v3 = round(v3, buffer.getLong(p + 16));
+				v4 = round(v4, buffer.getLong(p + 24));
+			}
+
+			h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+			h = mergeRound(h, v1);
+			h = mergeRound(h, v2);
+			h = mergeRound(h, v3);
+			h = mergeRound(h, v4);
+		} else {
+			h = seed + PRIME5;
+		}
+
+		h += length;
+
+		for (; p + 8 <= end; p += 8) {
+			h ^= round(0L, buffer.getLong(p));
+			h = Long.rotateLeft(h, 27) * PRIME1 + PRIME4;
+		}
+		if (p + 4 <= end) {
+			h ^= (buffer.getInt(p) & 0xffffffffL) * PRIME1;
+			h = Long.rotateLeft(h, 23) * PRIME2 + PRIME3;
+			p += 4;
+		}
+		for (; p < end; ++p) {
+			h ^= (data[p] & 0xffL) * PRIME5;
+			h = Long.rotateLeft(h, 11) * PRIME1;
+		}
+
+		h ^= h >>> 33;
+		h *= PRIME2;
+		h ^= h >>> 29;
+		h *= PRIME3;
+		h ^= h >>> 32;
+		return h;
+	}
+
+	private static long round(long accumulator, long input) {
+		accumulator += input * PRIME2;
+		accumulator = Long.rotateLeft(accumulator, 31);
+		return accumulator * PRIME1;
+	}
+
+	private static long mergeRound(long accumulator, long value) {
+		accumulator ^= round(0L, value);
+		return accumulator * PRIME1 + PRIME4;
+	}
+
+}